@@ -1,25 +1,67 @@
 package hudson.plugins.filesystem_scm;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 
-import org.apache.commons.io.IOUtils;
+import hudson.FilePath;
 
 /** We will only delete file from workspace if it is in the allowDeleteList.
  * 
  * <p>And each time we add any files to the workspace, we will add a record in this list.
  * 
+ * <p>The list is stored as a binary snapshot, the paths sorted and {@link FrontCoding
+ * front-coded}, plus a journal of the paths added and removed since. A checkout
+ * only appends what it changed to the journal; once the journal gets long compared to the
+ * snapshot, the snapshot is rewritten and the journal dropped. Lists written as UTF-8 lines
+ * by older versions are still read, and converted on the next save. In memory the list is a
+ * {@link PathSet}.
+ * 
  */
 public class AllowDeleteList {
 	
 	final private static String ALLOW_DELETE_LIST_BASENAME = "fsscm_allow_delete_list.dat";
+	final private static String JOURNAL_BASENAME = "fsscm_allow_delete_list.journal";
+
+	final private static int MAGIC = 0x46534144; // "FSAD"
+	final private static int JOURNAL_MAGIC = 0x46534a4e; // "FSJN"
+	final private static int VERSION = 1;
+	final private static byte ADD = 1;
+	final private static byte REMOVE = 2;
+	/**
+	 * The journal is compacted into the snapshot when it holds more entries than this,
+	 * or more than a quarter of the snapshot size.
+	 */
+	final static int MIN_COMPACTION = 1024;
 
 	private File file;
+	private File journal;
 	private Set<String> set;
+	/**
+	 * Changes not saved yet, as journal entries.
+	 */
+	private ByteArrayOutputStream pending;
+	private DataOutputStream pendingOut;
+	private int pendingSize;
+	/**
+	 * Identifies the snapshot a journal belongs to, so that a journal left over from before a
+	 * compaction is never replayed on the new snapshot.
+	 */
+	private long generation;
+	private int journalSize;
+	private boolean compact;
 	
 	public AllowDeleteList(File projectPath) {
 		file = new File(projectPath, ALLOW_DELETE_LIST_BASENAME);
-		set = new HashSet<String>();
+		journal = new File(projectPath, JOURNAL_BASENAME);
+		set = new PathSet();
+		pending = new ByteArrayOutputStream();
+		pendingOut = new DataOutputStream(pending);
+		compact = true;
 	}
 	
 	public boolean fileExists() {
@@ -33,41 +75,203 @@ public class AllowDeleteList {
 	public void setList(Set<String> list) {
 		set.clear();
 		set.addAll(list);
+		clearPending();
+		compact = true;
+	}
+	
+	/**
+	 * Replaces the list with all files in a workspace, added as the agent lists them.
+	 * 
+	 * @param workspace the workspace
+	 * @throws IOException if the workspace cannot be listed
+	 * @throws InterruptedException if interrupted
+	 */
+	public void setList(FilePath workspace) throws IOException, InterruptedException {
+		set.clear();
+		clearPending();
+		compact = true;
+		RemoteListDir.list(workspace, set::add);
 	}
 	
 	public boolean add(String item) {
-		return set.add(item);
+		if (set.add(item)) {
+			addPending(ADD, item);
+			return true;
+		}
+		return false;
 	}
 	
 	public boolean remove(String item) {
-		return set.remove(item);
+		if (set.remove(item)) {
+			addPending(REMOVE, item);
+			return true;
+		}
+		return false;
 	}
 	
+	/**
+	 * Removes the files deleted from the workspace and adds the files copied to it.
+	 * 
+	 * @param entries the changes of a checkout
+	 */
+	public void update(List<FolderDiff.Entry> entries) {
+		for (FolderDiff.Entry entry : entries) {
+			if (FolderDiff.Entry.Type.DELETED.equals(entry.getType())) {
+				remove(entry.getFilename());
+			} else {
+				// added or modified
+				add(entry.getFilename());
+			}
+		}
+	}
+	
+	/**
+	 * Appends the changes since {@link #load()} to the journal, or rewrites the snapshot if it
+	 * has to be compacted.
+	 * 
+	 * @throws IOException if the list cannot be written
+	 */
 	public void save() throws IOException {
-		PrintStream out = null;
+		if (compact || journalSize + pendingSize > Math.max(MIN_COMPACTION, set.size() / 4)) {
+			writeSnapshot();
+		} else if (pendingSize > 0) {
+			appendJournal();
+		}
+		clearPending();
+	}
+	
+	private void addPending(byte op, String item) {
 		try {
-			out = new PrintStream(file, "UTF-8");
-			for(String name : set) {
-				out.println(name);
-			}
-		} finally {
-			IOUtils.closeQuietly(out);
-		}		
+			pendingOut.writeByte(op);
+			pendingOut.writeUTF(item);
+			pendingSize++;
+		} catch (IOException e) {
+			// paths longer than 64KB in UTF-8 cannot be journaled
+			compact = true;
+		}
+	}
+	
+	private void clearPending() {
+		pending.reset();
+		pendingSize = 0;
 	}
 	
 	public void load() throws IOException {
 		set.clear();
-		BufferedReader reader = null;
+		clearPending();
+		journalSize = 0;
+		compact = false;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			in.mark(4);
+			if (readMagic(in) != MAGIC) {
+				in.reset();
+				loadLines(in);
+				// written by an older version
+				compact = true;
+				return;
+			}
+			int version = in.readInt();
+			if (version != VERSION) {
+				throw new IOException("Unsupported allow delete list version " + version);
+			}
+			generation = in.readLong();
+			int count = in.readInt();
+			FrontCoding.Reader reader = new FrontCoding.Reader(in);
+			for (int i = 0; i < count; i++) {
+				set.add(reader.read());
+			}
+		} catch (EOFException e) {
+			throw new IOException("Truncated allow delete list " + file, e);
+		}
+		loadJournal();
+	}
+	
+	private static int readMagic(DataInputStream in) throws IOException {
+		try {
+			return in.readInt();
+		} catch (EOFException e) {
+			// an empty list written by an older version
+			return 0;
+		}
+	}
+	
+	private void loadLines(InputStream in) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+		String line;
+		while ((line = reader.readLine()) != null) {
+			if (line.length() > 0) {
+				set.add(line);
+			}
+		}
+	}
+	
+	private void loadJournal() throws IOException {
+		DataInputStream in;
+		try {
+			in = new DataInputStream(new BufferedInputStream(Files.newInputStream(journal.toPath())));
+		} catch (NoSuchFileException e) {
+			return;
+		}
 		try {
-			reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
-			while(reader.ready()) {
-				String line = reader.readLine();
-				if ( null != line && line.length() > 0 ) {
-					set.add(line);
+			if (in.readInt() != JOURNAL_MAGIC || in.readInt() != VERSION || in.readLong() != generation) {
+				// left over from before the last compaction
+				compact = true;
+				return;
+			}
+			int op;
+			while ((op = in.read()) != -1) {
+				String name = in.readUTF();
+				if (op == ADD) {
+					set.add(name);
+				} else if (op == REMOVE) {
+					set.remove(name);
+				} else {
+					throw new IOException("Corrupt allow delete list journal " + journal);
 				}
+				journalSize++;
 			}
+		} catch (EOFException e) {
+			// the header or the last entry was cut short by a crash while appending,
+			// rewrite it rather than append after the torn entry
+			compact = true;
 		} finally {
-			IOUtils.closeQuietly(reader);
-		}		
+			in.close();
+		}
+	}
+	
+	private void writeSnapshot() throws IOException {
+		List<String> names = new ArrayList<String>(set);
+		Collections.sort(names);
+		long next = generation + 1;
+		File tmp = new File(file.getPath() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(next);
+			out.writeInt(names.size());
+			FrontCoding.Writer writer = new FrontCoding.Writer(out);
+			for (String name : names) {
+				writer.write(name);
+			}
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		Files.deleteIfExists(journal.toPath());
+		generation = next;
+		journalSize = 0;
+		compact = false;
+	}
+	
+	private void appendJournal() throws IOException {
+		boolean create = !journal.exists();
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(
+				journal.toPath(), StandardOpenOption.CREATE, StandardOpenOption.APPEND)))) {
+			if (create) {
+				out.writeInt(JOURNAL_MAGIC);
+				out.writeInt(VERSION);
+				out.writeLong(generation);
+			}
+			pending.writeTo(out);
+		}
+		journalSize += pendingSize;
+	}
 	}
-}
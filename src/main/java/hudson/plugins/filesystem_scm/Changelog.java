@@ -3,11 +3,16 @@ package hudson.plugins.filesystem_scm;
 import hudson.scm.ChangeLogSet;
 import hudson.scm.EditType;
 
+import java.io.IOException;
+import java.util.AbstractCollection;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 import javax.annotation.CheckForNull;
 
 /** Represents a Changelog record (ChangeLogSet.Entry) in ChangelogSet
@@ -20,9 +25,15 @@ import javax.annotation.CheckForNull;
  */
 public class Changelog extends hudson.scm.ChangeLogSet.Entry {
 	
+	/**
+	 * The number of changed files shown on one page of the changes of a build.
+	 */
+	public static final int PAGE_SIZE = 1000;
+	
 	private ChangelogSet parent;
 	private Date date;
 	private List<Path> paths;
+	private List<Rollup> rollup;
 	
 	public Changelog() {
 		// do nothing, only for serialization
@@ -43,13 +54,59 @@ public class Changelog extends hudson.scm.ChangeLogSet.Entry {
 		}
 	}
 	
+	/**
+	 * @param paths the changed files, possibly read lazily by {@link ChangelogReader}
+	 */
+	void setPaths(List<Path> paths) {
+		this.paths = paths;
+	}
+	
+	/**
+	 * @return the counts of the changes per top-level directory if only the
+	 *         first of the changed files were recorded, or {@code null} if all were
+	 */
+	@CheckForNull
+	public List<Rollup> getRollup() {
+		return rollup != null ? Collections.unmodifiableList(rollup) : null;
+	}
+	
+	void setRollup(@CheckForNull List<Rollup> rollup) {
+		this.rollup = rollup;
+	}
+	
+	/**
+	 * @return the number of changed files, including those not recorded
+	 */
+	public int getFileCount() {
+		if ( rollup == null ) return paths.size();
+		int count = 0;
+		for( Rollup directory : rollup ) count += directory.getTotal();
+		return count;
+	}
+	
 	@Override
 	public Collection<String> getAffectedPaths() {
-		ArrayList<String> list = new ArrayList<String>();
-		for( Path path : paths ) {
-			list.add(path.getValue());
-		}
-		return Collections.unmodifiableList(list);
+		// a view, the paths of a large changelog are not all held at once
+		return new AbstractCollection<String>() {
+			@Override
+			public Iterator<String> iterator() {
+				final Iterator<Path> it = paths.iterator();
+				return new Iterator<String>() {
+					public boolean hasNext() {
+						return it.hasNext();
+					}
+					
+					public String next() {
+						return it.next().getValue();
+					}
+				};
+			}
+			
+			@Override
+			public int size() {
+				return paths.size();
+			}
+		};
 	}
 	
 	@Override
@@ -57,6 +114,27 @@ public class Changelog extends hudson.scm.ChangeLogSet.Entry {
 		return Collections.unmodifiableList(paths);
 	}
 	
+	/**
+	 * @param page the number of the page, starting at 1, as given in the request
+	 * @return the page of the changed files, the first one if the number is not valid
+	 * @throws IOException if the changelog cannot be read
+	 */
+	public Page getPage(@CheckForNull String page) throws IOException {
+		int count = Math.max(1, (paths.size() + PAGE_SIZE - 1) / PAGE_SIZE);
+		int number = 1;
+		try {
+			if ( page != null ) number = Math.min(Math.max(1, Integer.parseInt(page)), count);
+		} catch (NumberFormatException e) {
+			// the first page
+		}
+		int from = (number - 1) * PAGE_SIZE;
+		int to = Math.min(from + PAGE_SIZE, paths.size());
+		List<Path> files;
+		if ( paths instanceof ChangelogReader.Paths ) files = ((ChangelogReader.Paths)paths).read(from, to);
+		else files = paths.subList(from, to);
+		return new Page(number, count, Collections.unmodifiableList(files));
+	}
+	
 	@Override
 	public String getMsg() {
 		if ( 0 == paths.size() ) return "No change";
@@ -64,11 +142,25 @@ public class Changelog extends hudson.scm.ChangeLogSet.Entry {
 		int add = 0;
 		int del = 0;
 		int edit = 0;
-		for(int i=0; i<paths.size(); i++) {
-			Path path = paths.get(i);
-			if ( "ADD".equalsIgnoreCase(path.action) ) ++add;
-			else if ( "DELETE".equalsIgnoreCase(path.action) ) ++del;
-			else ++edit;
+		if ( rollup != null ) {
+			// the recorded paths are only the first ones
+			for( Rollup directory : rollup ) {
+				add += directory.getAdded();
+				del += directory.getDeleted();
+				edit += directory.getModified();
+			}
+		} else if ( paths instanceof ChangelogReader.Paths ) {
+			// counted while the changelog was read
+			ChangelogReader.Paths counted = (ChangelogReader.Paths)paths;
+			add = counted.getAddCount();
+			del = counted.getDeleteCount();
+			edit = counted.getEditCount();
+		} else {
+			for( Path path : paths ) {
+				if ( "ADD".equalsIgnoreCase(path.action) ) ++add;
+				else if ( "DELETE".equalsIgnoreCase(path.action) ) ++del;
+				else ++edit;
+			}
 		}
 		StringBuilder buf = new StringBuilder();
 		buildMessage(buf, add, "new file", "new files");
@@ -143,6 +235,114 @@ public class Changelog extends hudson.scm.ChangeLogSet.Entry {
 		return true;
 	}
 	
+	/** A page of the changed files in Changelog
+	 * 
+	 */
+	public static class Page {
+		
+		private final int number;
+		private final int count;
+		private final List<Path> files;
+		
+		Page(int number, int count, List<Path> files) {
+			this.number = number;
+			this.count = count;
+			this.files = files;
+		}
+		
+		/**
+		 * @return the number of this page, starting at 1
+		 */
+		public int getNumber() {
+			return number;
+		}
+		
+		/**
+		 * @return the number of pages
+		 */
+		public int getCount() {
+			return count;
+		}
+		
+		public List<Path> getFiles() {
+			return files;
+		}
+	}
+	
+	/** The counts of the changes below a top-level directory, recorded
+	 * instead of the paths once a changelog is capped
+	 * 
+	 */
+	public static class Rollup {
+		
+		/** The name of the directory, "." for the files at the top
+		 * 
+		 */
+		private String name;
+		private int added;
+		private int modified;
+		private int deleted;
+		
+		public Rollup() {
+			// do nothing, only for serialization
+		}
+		
+		Rollup(String name, int added, int modified, int deleted) {
+			this.name = name;
+			this.added = added;
+			this.modified = modified;
+			this.deleted = deleted;
+		}
+		
+		/**
+		 * @return the counts of the changes per top-level directory, sorted by name
+		 */
+		static List<Rollup> of(List<FolderDiff.Entry> changes) {
+			Map<String, Rollup> directories = new TreeMap<String, Rollup>();
+			for( FolderDiff.Entry change : changes ) {
+				String name = getTopLevelDirectory(change.getFilename());
+				Rollup directory = directories.get(name);
+				if ( directory == null ) {
+					directory = new Rollup(name, 0, 0, 0);
+					directories.put(name, directory);
+				}
+				if ( FolderDiff.Entry.Type.NEW == change.getType() ) ++directory.added;
+				else if ( FolderDiff.Entry.Type.DELETED == change.getType() ) ++directory.deleted;
+				else ++directory.modified;
+			}
+			return new ArrayList<Rollup>(directories.values());
+		}
+		
+		private static String getTopLevelDirectory(String filename) {
+			// the separator of the agent the changes were found on
+			for( int i=0; i<filename.length(); i++ ) {
+				char c = filename.charAt(i);
+				if ( '/' == c || '\\' == c ) return filename.substring(0, i);
+			}
+			return ".";
+		}
+		
+		public String getName() {
+			return name;
+		}
+		
+		public int getAdded() {
+			return added;
+		}
+		
+		public int getModified() {
+			return modified;
+		}
+		
+		public int getDeleted() {
+			return deleted;
+		}
+		
+		public int getTotal() {
+			return added + modified + deleted;
+		}
+	}
+	
 	/** A changed file in Changelog
 	 * 
 	 * @author Sam NG
@@ -176,9 +376,16 @@ public class Changelog extends hudson.scm.ChangeLogSet.Entry {
 		public Path(Changelog changelog, FolderDiff.Entry entry) {
 			this.changelog = changelog;
 			setValue(entry.getFilename());
-			if ( FolderDiff.Entry.Type.NEW == entry.getType() ) setAction("ADD");
-			else if ( FolderDiff.Entry.Type.DELETED == entry.getType() ) setAction("DELETE");
-			else setAction("EDIT");
+			setAction(getAction(entry.getType()));
+		}
+		
+		/**
+		 * @return the action recorded for a change of the type
+		 */
+		static String getAction(FolderDiff.Entry.Type type) {
+			if ( FolderDiff.Entry.Type.NEW == type ) return "ADD";
+			else if ( FolderDiff.Entry.Type.DELETED == type ) return "DELETE";
+			else return "EDIT";
 		}
 		
 		/**
@@ -0,0 +1,405 @@
+package hudson.plugins.filesystem_scm;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.AbstractSequentialList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.NoSuchElementException;
+
+import javax.annotation.CheckForNull;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import hudson.model.Run;
+
+/**
+ * Reads a changelog written by {@link ChangelogSet.XMLSerializer} lazily.
+ *
+ * <p>
+ * The counts of the changes by action are read from the header of a
+ * {@link CompactChangelog}; an XML file is scanned once with a StAX cursor to
+ * count them.
+ * The {@link Changelog.Path} objects are only created while
+ * {@link Changelog#getAffectedFiles()} is iterated, by reading the file again,
+ * so a changelog of any size takes a few bytes of heap until a page of it is
+ * shown.
+ * </p>
+ *
+ * <p>
+ * The {@link Changelog.Rollup} of a capped changelog is read at once, the
+ * counts are then taken from it as only the first changes are recorded.
+ * </p>
+ */
+final class ChangelogReader {
+
+    /**
+     * The depth of the {@code <changelog>} element, below {@code <log><logs>}.
+     */
+    private static final int CHANGELOG_DEPTH = 3;
+    /**
+     * The depth of the {@code <paths>} and {@code <rollup>} elements.
+     */
+    private static final int SECTION_DEPTH = 4;
+    /**
+     * The depth of the {@code <path>} element, below {@code <changelog><paths>},
+     * and of the {@code <directory>} element, below
+     * {@code <changelog><rollup>}.
+     */
+    private static final int PATH_DEPTH = 5;
+
+    private static final XMLInputFactory FACTORY = createFactory();
+
+    private ChangelogReader() {
+    }
+
+    /**
+     * @param build
+     *            the build of the changelog
+     * @param file
+     *            the changelog file
+     * @return the changelog, its paths read from the file when needed
+     * @throws IOException
+     *             if the file cannot be read
+     */
+    static ChangelogSet read(Run<?, ?> build, File file) throws IOException {
+        CompactChangelog.Summary summary = CompactChangelog.readSummary(file);
+        if (summary != null) {
+            return create(build, file, true, summary.added + summary.modified + summary.deleted > 0,
+                    summary.recorded, summary.added, summary.deleted, summary.modified, summary.rollup);
+        }
+        int changelogs = 0;
+        int add = 0;
+        int delete = 0;
+        int edit = 0;
+        List<Changelog.Rollup> rollup;
+        try (Cursor cursor = new Cursor(file)) {
+            Changelog.Path path;
+            while ((path = cursor.next()) != null) {
+                if ("ADD".equalsIgnoreCase(path.getAction())) {
+                    ++add;
+                } else if ("DELETE".equalsIgnoreCase(path.getAction())) {
+                    ++delete;
+                } else {
+                    ++edit;
+                }
+            }
+            changelogs = cursor.changelogs;
+            rollup = cursor.rollup;
+        }
+        int recorded = add + delete + edit;
+        if (rollup != null) {
+            add = 0;
+            delete = 0;
+            edit = 0;
+            for (Changelog.Rollup directory : rollup) {
+                add += directory.getAdded();
+                delete += directory.getDeleted();
+                edit += directory.getModified();
+            }
+        }
+        return create(build, file, false, changelogs > 0, recorded, add, delete, edit, rollup);
+    }
+
+    private static ChangelogSet create(Run<?, ?> build, File file, boolean compact, boolean changed, int recorded,
+            int add, int delete, int edit, @CheckForNull List<Changelog.Rollup> rollup) {
+        ChangelogSet set = new ChangelogSet(build);
+        if (changed) {
+            Changelog changelog = new Changelog(set);
+            changelog.setPaths(new Paths(file, compact, changelog, recorded, add, delete, edit));
+            changelog.setRollup(rollup);
+            set.add(changelog);
+        }
+        return set;
+    }
+
+    private static XMLInputFactory createFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+
+    /**
+     * The paths of a changelog, read from the file each time they are
+     * iterated. Only iterating forward is supported; the paths are read in
+     * chunks, each one closing the file before it is returned, so an
+     * iteration stopped early leaves no file open.
+     */
+    static final class Paths extends AbstractSequentialList<Changelog.Path> {
+
+        private final File file;
+        private final boolean compact;
+        private final Changelog changelog;
+        private final int size;
+        private final int add;
+        private final int delete;
+        private final int edit;
+
+        /**
+         * @param size
+         *            the number of paths recorded
+         * @param add
+         *            the number of new files, including those not recorded
+         */
+        Paths(File file, boolean compact, Changelog changelog, int size, int add, int delete, int edit) {
+            this.file = file;
+            this.compact = compact;
+            this.changelog = changelog;
+            this.size = size;
+            this.add = add;
+            this.delete = delete;
+            this.edit = edit;
+        }
+
+        int getAddCount() {
+            return add;
+        }
+
+        int getDeleteCount() {
+            return delete;
+        }
+
+        int getEditCount() {
+            return edit;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        private PathCursor open() throws IOException {
+            return compact ? new CompactChangelog.Cursor(file) : new Cursor(file);
+        }
+
+        /**
+         * @return the paths from {@code from} (inclusive) to {@code to}
+         *         (exclusive), read at once
+         */
+        List<Changelog.Path> read(int from, int to) throws IOException {
+            List<Changelog.Path> paths = new ArrayList<>(Math.max(0, to - from));
+            try (PathCursor cursor = open()) {
+                for (int i = 0; i < to; i++) {
+                    Changelog.Path path = cursor.next();
+                    if (path == null) {
+                        break;
+                    }
+                    if (i >= from) {
+                        path.setChangelog(changelog);
+                        paths.add(path);
+                    }
+                }
+            }
+            return paths;
+        }
+
+        @Override
+        public ListIterator<Changelog.Path> listIterator(final int index) {
+            if (index < 0 || index > size()) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+            }
+            return new ListIterator<Changelog.Path>() {
+                private List<Changelog.Path> chunk = Collections.emptyList();
+                private int start = index;
+                private int next = index;
+
+                @Override
+                public boolean hasNext() {
+                    return next < size();
+                }
+
+                @Override
+                public Changelog.Path next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    if (next - start == chunk.size()) {
+                        // as many as before it, so the file is read about twice in all
+                        int to = Math.min(size(), next + Math.max(Changelog.PAGE_SIZE, next));
+                        try {
+                            chunk = read(next, to);
+                            if (chunk.isEmpty()) {
+                                throw new IOException(file + " changed while reading it");
+                            }
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                        start = next;
+                    }
+                    return chunk.get(next++ - start);
+                }
+
+                @Override
+                public int nextIndex() {
+                    return next;
+                }
+
+                @Override
+                public boolean hasPrevious() {
+                    return false;
+                }
+
+                @Override
+                public Changelog.Path previous() {
+                    throw new UnsupportedOperationException();
+                }
+
+                @Override
+                public int previousIndex() {
+                    return next - 1;
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+
+                @Override
+                public void set(Changelog.Path path) {
+                    throw new UnsupportedOperationException();
+                }
+
+                @Override
+                public void add(Changelog.Path path) {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+    }
+
+    /**
+     * Reads the changes of a changelog file one by one.
+     */
+    interface PathCursor extends Closeable {
+
+        /**
+         * @return the next path, without its changelog, or {@code null} at the
+         *         end of the file
+         */
+        @CheckForNull
+        Changelog.Path next() throws IOException;
+    }
+
+    /**
+     * Reads the {@code <path>} elements of an XML changelog file one by one,
+     * collecting the {@code <directory>} elements of a rollup on the way.
+     */
+    private static final class Cursor implements PathCursor {
+
+        private final InputStream in;
+        private final XMLStreamReader reader;
+        private int depth;
+        private int changelogs;
+        @CheckForNull
+        private List<Changelog.Rollup> rollup;
+
+        Cursor(File file) throws IOException {
+            in = new BufferedInputStream(new FileInputStream(file));
+            try {
+                reader = FACTORY.createXMLStreamReader(in);
+            } catch (XMLStreamException e) {
+                in.close();
+                throw new IOException("Failed to read " + file, e);
+            }
+        }
+
+        @Override
+        @CheckForNull
+        public Changelog.Path next() throws IOException {
+            try {
+                while (reader.hasNext()) {
+                    int event = reader.next();
+                    if (event == XMLStreamConstants.START_ELEMENT) {
+                        depth++;
+                        if (depth == CHANGELOG_DEPTH && "changelog".equals(reader.getLocalName())) {
+                            changelogs++;
+                        } else if (depth == SECTION_DEPTH && "rollup".equals(reader.getLocalName())) {
+                            rollup = new ArrayList<>();
+                        } else if (depth == PATH_DEPTH && "path".equals(reader.getLocalName())) {
+                            return readPath();
+                        } else if (depth == PATH_DEPTH && "directory".equals(reader.getLocalName())
+                                && rollup != null) {
+                            rollup.add(readRollup());
+                        }
+                    } else if (event == XMLStreamConstants.END_ELEMENT) {
+                        depth--;
+                    }
+                }
+                return null;
+            } catch (XMLStreamException e) {
+                throw new IOException("Failed to read the changelog", e);
+            }
+        }
+
+        private Changelog.Path readPath() throws XMLStreamException {
+            Changelog.Path path = new Changelog.Path();
+            // the value and action, skipping the reference to the changelog
+            int level = 0;
+            while (true) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    if (level == 0 && "value".equals(reader.getLocalName())) {
+                        path.setValue(reader.getElementText());
+                    } else if (level == 0 && "action".equals(reader.getLocalName())) {
+                        path.setAction(reader.getElementText());
+                    } else {
+                        level++;
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    if (level == 0) {
+                        depth--;
+                        return path;
+                    }
+                    level--;
+                }
+            }
+        }
+
+        private Changelog.Rollup readRollup() throws XMLStreamException {
+            String name = ".";
+            int added = 0;
+            int modified = 0;
+            int deleted = 0;
+            while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+                String element = reader.getLocalName();
+                String text = reader.getElementText();
+                try {
+                    if ("name".equals(element)) {
+                        name = text;
+                    } else if ("added".equals(element)) {
+                        added = Integer.parseInt(text.trim());
+                    } else if ("modified".equals(element)) {
+                        modified = Integer.parseInt(text.trim());
+                    } else if ("deleted".equals(element)) {
+                        deleted = Integer.parseInt(text.trim());
+                    }
+                } catch (NumberFormatException e) {
+                    throw new XMLStreamException("Invalid count " + text, reader.getLocation(), e);
+                }
+            }
+            depth--;
+            return new Changelog.Rollup(name, added, modified, deleted);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                reader.close();
+            } catch (XMLStreamException e) {
+                throw new IOException(e);
+            } finally {
+                in.close();
+            }
+        }
+    }
+}
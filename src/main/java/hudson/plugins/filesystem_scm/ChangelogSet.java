@@ -1,15 +1,20 @@
 package hudson.plugins.filesystem_scm;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
 import org.apache.commons.io.IOUtils;
 import org.xml.sax.SAXException;
 
@@ -27,7 +32,9 @@ import hudson.util.XStream2;
  * </p>
  * 
  * <p>
- * XML serialization is done by XStream2
+ * XML serialization is done by XStream2. A checkout writes its changelog with
+ * {@link XMLSerializer#save(List, File)} instead, in the same format, and
+ * {@link XMLSerializer#parse(Run, File)} reads it lazily.
  * </p>
  * 
  * @author Sam NG
@@ -48,6 +55,18 @@ public class ChangelogSet extends hudson.scm.ChangeLogSet<Changelog> {
         }
     }
 
+    /**
+     * An empty set, filled by {@link ChangelogReader}.
+     */
+    ChangelogSet(Run<?, ?> build) {
+        super(build, new FilesystemRepositoryBrowser());
+        logs = new ArrayList<>();
+    }
+
+    void add(Changelog changelog) {
+        logs.add(changelog);
+    }
+
     @Override
     public String getKind() {
         return "fs_scm";
@@ -106,6 +125,7 @@ public class ChangelogSet extends hudson.scm.ChangeLogSet<Changelog> {
             xstream.aliasField("changelogset", ChangelogSet.class, "changeLogSet");
             xstream.alias("changelog", Changelog.class);
             xstream.alias("path", Changelog.Path.class);
+            xstream.alias("directory", Changelog.Rollup.class);
             xstream.omitField(hudson.scm.ChangeLogSet.class, "build");
             // xstream.omitField(ChangelogSet.ChangeLog.class, "parent");
             // xstream.omitField(ChangelogSet.Path.class, "changeLog");
@@ -117,17 +137,14 @@ public class ChangelogSet extends hudson.scm.ChangeLogSet<Changelog> {
             return parse(build, changelogFile);
         }
 
-        @SuppressWarnings("rawtypes")
-        public ChangelogSet parse(Run<?, ?> build, java.io.File file) throws FileNotFoundException {
-            FileInputStream in = null;
-            ChangelogSet out = null;
-            try {
-                in = new FileInputStream(file);
-                out = (ChangelogSet) xstream.fromXML(in);
-            } finally {
-                IOUtils.closeQuietly(in);
-            }
-            return out;
+        /**
+         * Reads a changelog lazily, see {@link ChangelogReader}: only the counts
+         * of the changes are kept, the changed files are read from the file
+         * again when they are shown. Both XML and {@link CompactChangelog}
+         * files are read.
+         */
+        public ChangelogSet parse(Run<?, ?> build, java.io.File file) throws IOException {
+            return ChangelogReader.read(build, file);
         }
 
         public void save(ChangelogSet changeLogSet, File changelogFile) throws FileNotFoundException {
@@ -139,5 +156,131 @@ public class ChangelogSet extends hudson.scm.ChangeLogSet<Changelog> {
                 IOUtils.closeQuietly(out);
             }
         }
+
+        /**
+         * Writes the changelog of a checkout straight from its changes, without
+         * building a {@link ChangelogSet} first. The XML is what
+         * {@link #save(ChangelogSet, File)} writes for
+         * {@code new ChangelogSet(build, changes)}, including the references
+         * from each {@link Changelog} and {@link Changelog.Path} back to its
+         * parent, so {@link #parse(Run, File)} reads it the same way.
+         *
+         * @param changes
+         *            the changes of the checkout
+         * @param changelogFile
+         *            the file to write
+         * @throws IOException
+         *             if the file cannot be written
+         */
+        public void save(List<FolderDiff.Entry> changes, File changelogFile) throws IOException {
+            save(changes, changelogFile, 0);
+        }
+
+        /**
+         * Writes the changelog of a checkout like {@link #save(List, File)},
+         * recording at most {@code limit} changes. Above that, the first
+         * changes are recorded followed by a {@code <rollup>} of the counts of
+         * all changes per top-level directory, see {@link Changelog.Rollup}.
+         *
+         * @param changes
+         *            the changes of the checkout
+         * @param changelogFile
+         *            the file to write
+         * @param limit
+         *            the number of changes recorded, or 0 to record all
+         * @throws IOException
+         *             if the file cannot be written
+         */
+        public void save(List<FolderDiff.Entry> changes, File changelogFile, int limit) throws IOException {
+            boolean capped = limit > 0 && changes.size() > limit;
+            List<FolderDiff.Entry> recorded = capped ? changes.subList(0, limit) : changes;
+            try (OutputStream out = Files.newOutputStream(changelogFile.toPath())) {
+                XMLStreamWriter xml = XMLOutputFactory.newInstance().createXMLStreamWriter(out, "UTF-8");
+                xml.writeStartDocument("UTF-8", "1.0");
+                xml.writeStartElement("log");
+                xml.writeStartElement("logs");
+                if (!changes.isEmpty()) {
+                    xml.writeStartElement("changelog");
+                    writeReference(xml, "parent");
+                    xml.writeStartElement("paths");
+                    for (FolderDiff.Entry change : recorded) {
+                        xml.writeStartElement("path");
+                        writeElement(xml, "value", change.getFilename());
+                        writeElement(xml, "action", Changelog.Path.getAction(change.getType()));
+                        writeReference(xml, "changelog");
+                        xml.writeEndElement();
+                    }
+                    xml.writeEndElement();
+                    if (capped) {
+                        xml.writeStartElement("rollup");
+                        for (Changelog.Rollup directory : Changelog.Rollup.of(changes)) {
+                            xml.writeStartElement("directory");
+                            writeElement(xml, "name", directory.getName());
+                            writeElement(xml, "added", Integer.toString(directory.getAdded()));
+                            writeElement(xml, "modified", Integer.toString(directory.getModified()));
+                            writeElement(xml, "deleted", Integer.toString(directory.getDeleted()));
+                            xml.writeEndElement();
+                        }
+                        xml.writeEndElement();
+                    }
+                    xml.writeEndElement();
+                }
+                xml.writeEndElement();
+                xml.writeEndElement();
+                xml.writeEndDocument();
+                xml.close();
+            } catch (XMLStreamException e) {
+                throw new IOException("Failed to write " + changelogFile, e);
+            }
+        }
+
+        /**
+         * Writes the changelog of a checkout in the binary
+         * {@link CompactChangelog} format, which {@link #parse(Run, File)}
+         * reads as well.
+         *
+         * @param changes
+         *            the changes of the checkout
+         * @param changelogFile
+         *            the file to write
+         * @throws IOException
+         *             if the file cannot be written
+         */
+        public void saveCompact(List<FolderDiff.Entry> changes, File changelogFile) throws IOException {
+            saveCompact(changes, changelogFile, 0);
+        }
+
+        /**
+         * Writes the changelog of a checkout in the binary
+         * {@link CompactChangelog} format, recording at most {@code limit}
+         * changes like {@link #save(List, File, int)}.
+         *
+         * @param changes
+         *            the changes of the checkout
+         * @param changelogFile
+         *            the file to write
+         * @param limit
+         *            the number of changes recorded, or 0 to record all
+         * @throws IOException
+         *             if the file cannot be written
+         */
+        public void saveCompact(List<FolderDiff.Entry> changes, File changelogFile, int limit) throws IOException {
+            CompactChangelog.write(changes, changelogFile, limit);
+        }
+
+        private static void writeElement(XMLStreamWriter xml, String name, String value) throws XMLStreamException {
+            xml.writeStartElement(name);
+            xml.writeCharacters(value);
+            xml.writeEndElement();
+        }
+
+        /**
+         * Writes a reference to the object three levels up, the way XStream
+         * refers to an object it has already written.
+         */
+        private static void writeReference(XMLStreamWriter xml, String name) throws XMLStreamException {
+            xml.writeEmptyElement(name);
+            xml.writeAttribute("reference", "../../..");
+        }
     }
 }
@@ -0,0 +1,380 @@
+package hudson.plugins.filesystem_scm;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.CheckForNull;
+
+/**
+ * Records the source files seen by the last checkout of a workspace.
+ *
+ * <p>
+ * For every visible source file the manifest holds its size, last modified time
+ * and file key (inode), as they were when the file was copied to the
+ * workspace, and with content compare the digest of its content. Polling
+ * compares the source folder with this manifest instead of with the workspace,
+ * so the workspace does not have to be read, or even exist.
+ * </p>
+ *
+ * <p>
+ * The manifest is stored in the {@code @tmp} folder next to the workspace, so it
+ * never has to be sent between the agent and the controller; only its
+ * fingerprint is, see {@link FilesystemRevisionState}. Paths are written sorted
+ * and {@link FrontCoding front-coded}.
+ * </p>
+ *
+ * <p>
+ * An incremental checkout compares the source folder with the manifest of the
+ * last checkout as well, and then only writes the changed files. A marker next
+ * to the manifest tells whether the workspace still holds the files of that
+ * manifest.
+ * </p>
+ */
+public class CheckoutManifest {
+
+    static final String MANIFEST_BASENAME = "fsscm_checkout_manifest.dat";
+    static final String MARKER_BASENAME = "fsscm_checkout_marker.dat";
+
+    private static final int MAGIC = 0x46534d46; // "FSMF"
+    private static final int VERSION = 2;
+
+    private final String configKey;
+    private final boolean digests;
+    private final Map<String, Record> records = new HashMap<>();
+    @CheckForNull
+    private String fingerprint;
+
+    /**
+     * @param configKey
+     *            identifies the settings (filters, hidden files) the manifest was
+     *            recorded with, see {@link FolderDiff#getConfigKey()}
+     */
+    public CheckoutManifest(String configKey) {
+        this(configKey, false);
+    }
+
+    /**
+     * @param configKey
+     *            identifies the settings (filters, hidden files) the manifest was
+     *            recorded with, see {@link FolderDiff#getConfigKey()}
+     * @param digests
+     *            if true, the content digest of every file is recorded, see
+     *            {@link #put(String, BasicFileAttributes, long)}
+     */
+    public CheckoutManifest(String configKey, boolean digests) {
+        this.configKey = configKey;
+        this.digests = digests;
+    }
+
+    /**
+     * @param tempDir
+     *            the {@code @tmp} folder of the workspace
+     * @return the file the manifest of the last checkout of that workspace is
+     *         stored in
+     */
+    public static File getFile(File tempDir) {
+        return new File(tempDir, MANIFEST_BASENAME);
+    }
+
+    public String getConfigKey() {
+        return configKey;
+    }
+
+    /**
+     * @return true if the records hold content digests
+     */
+    public boolean hasDigests() {
+        return digests;
+    }
+
+    /**
+     * Records a source file. May be called concurrently by the scanning threads.
+     *
+     * @param relativeName
+     *            the name relative to the source folder
+     * @param attrs
+     *            the attributes of the source file
+     */
+    public synchronized void put(String relativeName, BasicFileAttributes attrs) {
+        records.put(relativeName, new Record(attrs, 0));
+        fingerprint = null;
+    }
+
+    /**
+     * Records a source file with the digest of its content, see
+     * {@link DigestCache#digest(File, BasicFileAttributes)}.
+     *
+     * @param relativeName
+     *            the name relative to the source folder
+     * @param attrs
+     *            the attributes of the source file
+     * @param digest
+     *            the digest of the source file
+     */
+    public synchronized void put(String relativeName, BasicFileAttributes attrs, long digest) {
+        records.put(relativeName, new Record(attrs, digest));
+        fingerprint = null;
+    }
+
+    @CheckForNull
+    public synchronized Record get(String relativeName) {
+        return records.get(relativeName);
+    }
+
+    public synchronized int size() {
+        return records.size();
+    }
+
+    /**
+     * @return the names of the recorded files, sorted
+     */
+    public synchronized List<String> getNames() {
+        List<String> names = new ArrayList<>(records.keySet());
+        Collections.sort(names);
+        return names;
+    }
+
+    /**
+     * @return the fingerprint of the recorded files, the same
+     *         {@link FolderDiff#getFingerprint()} returns for an unchanged source
+     *         folder; computed once until a file is recorded again
+     */
+    public synchronized String getFingerprint() {
+        if (fingerprint == null) {
+            TreeFingerprint tree = new TreeFingerprint();
+            for (Map.Entry<String, Record> entry : records.entrySet()) {
+                Record record = entry.getValue();
+                // like FolderDiff#getFingerprint, a touched file keeps its fingerprint with content compare
+                tree.add(entry.getKey(), record.getSize(), digests ? record.getDigest() : record.getLastModified());
+            }
+            fingerprint = tree.digest();
+        }
+        return fingerprint;
+    }
+
+    public synchronized void write(OutputStream out) throws IOException {
+        List<String> names = getNames();
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeUTF(configKey);
+        data.writeBoolean(digests);
+        data.writeInt(names.size());
+        FrontCoding.Writer writer = new FrontCoding.Writer(data);
+        for (String name : names) {
+            writer.write(name);
+            records.get(name).write(data, digests);
+        }
+        data.flush();
+    }
+
+    public static CheckoutManifest read(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+        CheckoutManifest manifest = new CheckoutManifest(readHeader(data), data.readBoolean());
+        int count = data.readInt();
+        FrontCoding.Reader reader = new FrontCoding.Reader(data);
+        for (int i = 0; i < count; i++) {
+            manifest.records.put(reader.read(), new Record(data, manifest.digests));
+        }
+        return manifest;
+    }
+
+    /**
+     * Stores the manifest next to the workspace, writing to a temporary file
+     * first so the file is either complete or not there.
+     *
+     * @param tempDir
+     *            the {@code @tmp} folder of the workspace
+     * @throws IOException
+     *             if the manifest cannot be written
+     */
+    public void save(File tempDir) throws IOException {
+        Files.createDirectories(tempDir.toPath());
+        File file = getFile(tempDir);
+        File tmpFile = new File(file.getPath() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(tmpFile.toPath())) {
+            write(out);
+        }
+        Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * @param tempDir
+     *            the {@code @tmp} folder of the workspace
+     * @return the manifest of the last checkout of the workspace, {@code null}
+     *         if there is none
+     * @throws IOException
+     *             if the file cannot be read or is not a manifest
+     */
+    @CheckForNull
+    public static CheckoutManifest load(File tempDir) throws IOException {
+        try (InputStream in = Files.newInputStream(getFile(tempDir).toPath())) {
+            return read(in);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private static String readHeader(DataInputStream data) throws IOException {
+        if (data.readInt() != MAGIC) {
+            throw new IOException("Not a checkout manifest");
+        }
+        int version = data.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported checkout manifest version " + version);
+        }
+        return data.readUTF();
+    }
+
+    /**
+     * Records next to a workspace that it holds the files of this manifest.
+     *
+     * @param workspace
+     *            the workspace the files were checked out to
+     * @param tempDir
+     *            the {@code @tmp} folder of the workspace
+     * @throws IOException
+     *             if the marker cannot be written
+     */
+    public void writeMarker(File workspace, File tempDir) throws IOException {
+        Files.createDirectories(tempDir.toPath());
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(new File(tempDir, MARKER_BASENAME).toPath())))) {
+            out.writeUTF(getFingerprint());
+            out.writeUTF(getWorkspaceKey(workspace));
+        }
+    }
+
+    /**
+     * @param workspace
+     *            the workspace to check out to
+     * @param tempDir
+     *            the {@code @tmp} folder of the workspace
+     * @return true if the workspace still holds the files of this manifest:
+     *         the marker was written for this manifest, and the workspace
+     *         folder was not deleted and created again since
+     */
+    public boolean isMarked(File workspace, File tempDir) {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(new File(tempDir, MARKER_BASENAME))))) {
+            return in.readUTF().equals(getFingerprint()) && in.readUTF().equals(getWorkspaceKey(workspace));
+        } catch (IOException e) {
+            // no marker, or not a readable one
+            return false;
+        }
+    }
+
+    /**
+     * Removes the marker and the manifest before the workspace is changed, so a
+     * checkout that does not complete leaves neither behind.
+     *
+     * @param tempDir
+     *            the {@code @tmp} folder of the workspace
+     * @throws IOException
+     *             if a file cannot be deleted
+     */
+    public static void delete(File tempDir) throws IOException {
+        Files.deleteIfExists(new File(tempDir, MARKER_BASENAME).toPath());
+        Files.deleteIfExists(getFile(tempDir).toPath());
+    }
+
+    /**
+     * Identifies the workspace folder itself, which changes when it is wiped
+     * and created again: its file key (device and inode on Unix) or, where
+     * there is none, its creation time.
+     */
+    private static String getWorkspaceKey(File workspace) throws IOException {
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(workspace.toPath(), BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return "";
+        }
+        Object key = attrs.fileKey();
+        return key != null ? key.toString() : Long.toString(attrs.creationTime().toMillis());
+    }
+
+    /**
+     * The file key (device and inode on Unix) is not available on every
+     * platform, only its hash is kept.
+     */
+    static int fileKeyOf(BasicFileAttributes attrs) {
+        Object key = attrs.fileKey();
+        return key == null ? 0 : key.hashCode();
+    }
+
+    /**
+     * The recorded state of one source file.
+     */
+    public static final class Record {
+        private final long size;
+        private final long lastModified;
+        private final int fileKey;
+        private final long digest;
+
+        Record(BasicFileAttributes attrs, long digest) {
+            this.size = attrs.size();
+            this.lastModified = attrs.lastModifiedTime().toMillis();
+            this.fileKey = fileKeyOf(attrs);
+            this.digest = digest;
+        }
+
+        private Record(DataInputStream in, boolean digests) throws IOException {
+            this.size = in.readLong();
+            this.lastModified = in.readLong();
+            this.fileKey = in.readInt();
+            this.digest = digests ? in.readLong() : 0;
+        }
+
+        private void write(DataOutputStream out, boolean digests) throws IOException {
+            out.writeLong(size);
+            out.writeLong(lastModified);
+            out.writeInt(fileKey);
+            if (digests) {
+                out.writeLong(digest);
+            }
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        /**
+         * @return the digest of the content, only set if the manifest
+         *         {@link CheckoutManifest#hasDigests() has digests}
+         */
+        public long getDigest() {
+            return digest;
+        }
+
+        /**
+         * @param attrs
+         *            the current attributes of the source file
+         * @return true if the file looks unchanged since it was recorded
+         */
+        public boolean matches(BasicFileAttributes attrs) {
+            return size == attrs.size() && lastModified == attrs.lastModifiedTime().toMillis()
+                    && fileKey == fileKeyOf(attrs);
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package hudson.plugins.filesystem_scm;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.annotation.CheckForNull;
+
+/**
+ * A binary changelog, several times smaller than the XML one and faster to
+ * read.
+ *
+ * <p>
+ * An uncompressed header holds the number of new, modified and deleted files,
+ * so the summary of a build is read without touching the rest. The rest is
+ * gzip-compressed: the types of all changes packed two bits each, then the
+ * file names {@link FrontCoding front-coded}.
+ * </p>
+ *
+ * <p>
+ * Since version 2 the header also holds the number of changes recorded, and
+ * for a capped changelog, which only records the first changes, the
+ * {@link Changelog.Rollup} of all of them. Version 1 files are still read.
+ * </p>
+ */
+final class CompactChangelog {
+
+    static final int MAGIC = 0x4653434c; // "FSCL"
+    static final int VERSION = 2;
+
+    private static final FolderDiff.Entry.Type[] TYPES = FolderDiff.Entry.Type.values();
+
+    private CompactChangelog() {
+    }
+
+    /**
+     * @param changes
+     *            the changes of a checkout
+     * @param file
+     *            the changelog file to write
+     * @param limit
+     *            the number of changes recorded, the rest only counted in
+     *            the rollup, or 0 to record all
+     * @throws IOException
+     *             if the file cannot be written
+     */
+    static void write(List<FolderDiff.Entry> changes, File file, int limit) throws IOException {
+        int[] counts = new int[TYPES.length];
+        for (FolderDiff.Entry change : changes) {
+            counts[change.getType().ordinal()]++;
+        }
+        boolean capped = limit > 0 && changes.size() > limit;
+        List<FolderDiff.Entry> recorded = capped ? changes.subList(0, limit) : changes;
+        byte[] types = new byte[(recorded.size() + 3) / 4];
+        for (int i = 0; i < recorded.size(); i++) {
+            types[i >> 2] |= recorded.get(i).getType().ordinal() << ((i & 3) << 1);
+        }
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(file.toPath())))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(counts[FolderDiff.Entry.Type.NEW.ordinal()]);
+            out.writeInt(counts[FolderDiff.Entry.Type.MODIFIED.ordinal()]);
+            out.writeInt(counts[FolderDiff.Entry.Type.DELETED.ordinal()]);
+            out.writeInt(recorded.size());
+            List<Changelog.Rollup> rollup = capped ? Changelog.Rollup.of(changes) : new ArrayList<Changelog.Rollup>();
+            out.writeInt(rollup.size());
+            for (Changelog.Rollup directory : rollup) {
+                out.writeUTF(directory.getName());
+                out.writeInt(directory.getAdded());
+                out.writeInt(directory.getModified());
+                out.writeInt(directory.getDeleted());
+            }
+            out.flush();
+            DataOutputStream data = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(out)));
+            data.write(types);
+            FrontCoding.Writer writer = new FrontCoding.Writer(data);
+            for (FolderDiff.Entry change : recorded) {
+                writer.write(change.getFilename());
+            }
+            data.close();
+        }
+    }
+
+    /**
+     * @return the header if the file is a binary changelog, or {@code null}
+     *         if it is not
+     * @throws IOException
+     *             if the file cannot be read
+     */
+    @CheckForNull
+    static Summary readSummary(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            return readHeader(in);
+        }
+    }
+
+    @CheckForNull
+    private static Summary readHeader(DataInputStream in) throws IOException {
+        try {
+            if (in.readInt() != MAGIC) {
+                return null;
+            }
+        } catch (EOFException e) {
+            return null;
+        }
+        int version = in.readInt();
+        if (version < 1 || version > VERSION) {
+            throw new IOException("Unsupported changelog version " + version);
+        }
+        Summary summary = new Summary(in.readInt(), in.readInt(), in.readInt());
+        if (version == 1) {
+            summary.recorded = summary.added + summary.modified + summary.deleted;
+            return summary;
+        }
+        summary.recorded = in.readInt();
+        int directories = in.readInt();
+        if (directories > 0) {
+            summary.rollup = new ArrayList<>(directories);
+            for (int i = 0; i < directories; i++) {
+                summary.rollup.add(new Changelog.Rollup(in.readUTF(), in.readInt(), in.readInt(), in.readInt()));
+            }
+        }
+        return summary;
+    }
+
+    /**
+     * The header of a binary changelog.
+     */
+    static final class Summary {
+
+        final int added;
+        final int modified;
+        final int deleted;
+        /**
+         * The number of changes recorded, less than the total if capped.
+         */
+        int recorded;
+        /**
+         * The counts per top-level directory if capped, otherwise {@code null}.
+         */
+        @CheckForNull
+        List<Changelog.Rollup> rollup;
+
+        Summary(int added, int modified, int deleted) {
+            this.added = added;
+            this.modified = modified;
+            this.deleted = deleted;
+        }
+    }
+
+    /**
+     * Reads the changes of a binary changelog one by one.
+     */
+    static final class Cursor implements ChangelogReader.PathCursor {
+
+        private final InputStream in;
+        private final DataInputStream data;
+        private final byte[] types;
+        private final int size;
+        private int index;
+        private final FrontCoding.Reader names;
+
+        Cursor(File file) throws IOException {
+            in = new FileInputStream(file);
+            try {
+                DataInputStream header = new DataInputStream(new BufferedInputStream(in));
+                Summary summary = readHeader(header);
+                if (summary == null) {
+                    throw new IOException(file + " is not a binary changelog");
+                }
+                data = new DataInputStream(new BufferedInputStream(new GZIPInputStream(header)));
+                size = summary.recorded;
+                types = new byte[(size + 3) / 4];
+                data.readFully(types);
+                names = new FrontCoding.Reader(data);
+            } catch (IOException e) {
+                in.close();
+                throw e;
+            }
+        }
+
+        @Override
+        @CheckForNull
+        public Changelog.Path next() throws IOException {
+            if (index == size) {
+                return null;
+            }
+            int type = types[index >> 2] >> ((index & 3) << 1) & 3;
+            String name = names.read();
+            index++;
+            Changelog.Path path = new Changelog.Path();
+            path.setValue(name);
+            path.setAction(Changelog.Path.getAction(TYPES[type]));
+            return path;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
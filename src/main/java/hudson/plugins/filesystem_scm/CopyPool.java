@@ -0,0 +1,106 @@
+package hudson.plugins.filesystem_scm;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Copies files on a bounded pool of threads while the tree walk goes on.
+ *
+ * <p>
+ * The queue holds a few files per thread. When it is full, the walking thread
+ * copies the next file itself, so the walk never gets far ahead of the copies
+ * and memory stays bounded. A failed copy does not stop the others; all
+ * failures are logged by {@link #finish()}, which then throws.
+ * </p>
+ */
+final class CopyPool {
+
+    private static final int QUEUED_FILES_PER_THREAD = 16;
+
+    private final FolderDiff<?> diff;
+    private final ThreadPoolExecutor executor;
+    private final List<Failure> failures = new ArrayList<>();
+
+    /**
+     * @param diff
+     *            its {@link FolderDiff#copyFile(File, File)} does the copying
+     * @param threads
+     *            number of copying threads
+     */
+    CopyPool(FolderDiff<?> diff, int threads) {
+        this.diff = diff;
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(threads * QUEUED_FILES_PER_THREAD),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    void submit(final File src, final File dst) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    diff.copyFile(src, dst);
+                } catch (IOException | RuntimeException e) {
+                    synchronized (failures) {
+                        failures.add(new Failure(src, e));
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Waits for all copies to complete.
+     *
+     * @throws IOException
+     *             if any copy failed, after all failures have been logged
+     */
+    void finish() throws IOException {
+        executor.shutdown();
+        try {
+            while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                // still copying
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while copying files");
+        }
+
+        synchronized (failures) {
+            if (failures.isEmpty()) {
+                return;
+            }
+            for (Failure failure : failures) {
+                diff.log("Failed to copy " + failure.src.getAbsolutePath(), failure.exception);
+            }
+            IOException e = new IOException(
+                    String.format("Failed to copy %d file(s), first was %s", failures.size(), failures.get(0).src));
+            e.initCause(failures.get(0).exception);
+            throw e;
+        }
+    }
+
+    /**
+     * Stops copying without waiting, used when the walk itself failed.
+     */
+    void abort() {
+        executor.shutdownNow();
+    }
+
+    private static final class Failure {
+        private final File src;
+        private final Exception exception;
+
+        Failure(File src, Exception exception) {
+            this.src = src;
+            this.exception = exception;
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package hudson.plugins.filesystem_scm;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.CRC32C;
+
+import javax.annotation.CheckForNull;
+
+/**
+ * Content digests of files, cached by path, size, last modified time and file
+ * key, so a file is only read again when its metadata changed.
+ *
+ * <p>
+ * The digest combines CRC-32C and CRC-32 into 64 bits. Both are computed by
+ * hardware instructions on current CPUs, so hashing runs at disk speed; the
+ * digest only has to tell a changed file from an unchanged one, it is not meant
+ * to resist deliberate collisions.
+ * </p>
+ *
+ * <p>
+ * A file modified less than {@link #RACY_MILLIS} before it was hashed is not
+ * cached: on file systems with a coarse timestamp it could change again without
+ * its metadata changing. This is the "racy clean" rule git applies to its
+ * index.
+ * </p>
+ */
+final class DigestCache {
+
+    private static final Logger LOGGER = Logger.getLogger(DigestCache.class.getName());
+
+    static final String CACHE_BASENAME = "fsscm_digests.dat";
+
+    /**
+     * The coarsest timestamp granularity of common file systems (FAT).
+     */
+    static final long RACY_MILLIS = 2000;
+
+    private static final int MAGIC = 0x46534443; // "FSDC"
+    private static final int VERSION = 1;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    @CheckForNull
+    private final File file;
+    private final Map<String, Record> records = new ConcurrentHashMap<>();
+    private final Set<String> used = ConcurrentHashMap.newKeySet();
+    private volatile boolean changed;
+
+    private DigestCache(@CheckForNull File file) {
+        this.file = file;
+    }
+
+    /**
+     * @param file
+     *            where the cache is stored, {@code null} for a cache that is
+     *            only kept in memory
+     * @return the cache, empty if the file does not exist or cannot be read
+     */
+    static DigestCache load(@CheckForNull File file) {
+        DigestCache cache = new DigestCache(file);
+        if (file == null) {
+            return cache;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return cache;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                cache.records.put(in.readUTF(), new Record(in));
+            }
+        } catch (NoSuchFileException e) {
+            // nothing cached yet
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Cannot read digest cache " + file, e);
+            cache.records.clear();
+        }
+        return cache;
+    }
+
+    /**
+     * Writes the cache if anything changed.
+     *
+     * @param prune
+     *            drop the files not asked for since the cache was loaded, only
+     *            correct if every file of the tree was asked for
+     * @throws IOException
+     *             if the cache file cannot be written
+     */
+    void save(boolean prune) throws IOException {
+        if (file == null) {
+            return;
+        }
+        if (prune && records.keySet().retainAll(used)) {
+            changed = true;
+        }
+        if (!changed) {
+            return;
+        }
+        File parent = file.getParentFile();
+        if (parent != null) {
+            Files.createDirectories(parent.toPath());
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(tmp.toPath())))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            // a snapshot, records are not modified while saving
+            Map<String, Record> snapshot = new HashMap<>(records);
+            out.writeInt(snapshot.size());
+            for (Map.Entry<String, Record> entry : snapshot.entrySet()) {
+                out.writeUTF(entry.getKey());
+                entry.getValue().write(out);
+            }
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        changed = false;
+    }
+
+    /**
+     * @param file
+     *            the file to get the digest of
+     * @param attrs
+     *            its current attributes
+     * @return the digest of the file content
+     * @throws IOException
+     *             if the file cannot be read
+     */
+    long digest(File file, BasicFileAttributes attrs) throws IOException {
+        String key = file.getAbsolutePath();
+        used.add(key);
+        Record record = records.get(key);
+        if (record != null && record.matches(attrs)) {
+            return record.digest;
+        }
+        long now = System.currentTimeMillis();
+        long digest = digest(file);
+        if (attrs.lastModifiedTime().toMillis() < now - RACY_MILLIS) {
+            records.put(key, new Record(attrs, digest));
+            changed = true;
+        } else if (record != null) {
+            records.remove(key);
+            changed = true;
+        }
+        return digest;
+    }
+
+    static long digest(File file) throws IOException {
+        CRC32C crc32c = new CRC32C();
+        CRC32 crc32 = new CRC32();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                crc32c.update(buffer.duplicate());
+                crc32.update(buffer);
+                buffer.clear();
+            }
+        }
+        return crc32c.getValue() << 32 | crc32.getValue();
+    }
+
+    /**
+     * @param workspaceTempDir
+     *            the {@code @tmp} folder next to the workspace
+     * @return the file the digest cache of that workspace is stored in
+     */
+    static File getFile(File workspaceTempDir) {
+        return new File(workspaceTempDir, CACHE_BASENAME);
+    }
+
+    private static final class Record {
+        private final long size;
+        private final long lastModified;
+        private final int fileKey;
+        private final long digest;
+
+        Record(BasicFileAttributes attrs, long digest) {
+            this.size = attrs.size();
+            this.lastModified = attrs.lastModifiedTime().toMillis();
+            this.fileKey = CheckoutManifest.fileKeyOf(attrs);
+            this.digest = digest;
+        }
+
+        Record(DataInputStream in) throws IOException {
+            this.size = in.readLong();
+            this.lastModified = in.readLong();
+            this.fileKey = in.readInt();
+            this.digest = in.readLong();
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeLong(size);
+            out.writeLong(lastModified);
+            out.writeInt(fileKey);
+            out.writeLong(digest);
+        }
+
+        boolean matches(BasicFileAttributes attrs) {
+            return size == attrs.size() && lastModified == attrs.lastModifiedTime().toMillis()
+                    && fileKey == CheckoutManifest.fileKeyOf(attrs);
+        }
+    }
+}
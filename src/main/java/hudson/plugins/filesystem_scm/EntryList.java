@@ -0,0 +1,135 @@
+package hudson.plugins.filesystem_scm;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import javax.annotation.CheckForNull;
+
+/**
+ * The changes of a checkout, as returned by {@link RemoteFolderDiff.CheckOut}.
+ *
+ * <p>
+ * Serialized in columns instead of one {@link FolderDiff.Entry} object after
+ * the other: the types of all entries packed two bits each, then the file
+ * names {@link FrontCoding front-coded}. The block of names is
+ * deflated once it is large enough for that to pay off.
+ * </p>
+ *
+ * <p>
+ * The {@link CheckoutManifest} recorded by the checkout stays on the agent, only
+ * its fingerprint travels back with the changes.
+ * </p>
+ */
+final class EntryList extends AbstractList<FolderDiff.Entry> implements RandomAccess, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The size of the block of names from which on it is compressed.
+     */
+    static final int COMPRESSION_THRESHOLD = 8 * 1024;
+
+    private static final FolderDiff.Entry.Type[] TYPES = FolderDiff.Entry.Type.values();
+
+    private transient List<FolderDiff.Entry> entries;
+    @CheckForNull
+    private final String fingerprint;
+
+    EntryList(List<FolderDiff.Entry> entries) {
+        this(entries, null);
+    }
+
+    /**
+     * @param fingerprint
+     *            the {@link CheckoutManifest#getFingerprint() fingerprint} of
+     *            the manifest recorded by the checkout
+     */
+    EntryList(List<FolderDiff.Entry> entries, @CheckForNull String fingerprint) {
+        this.entries = entries;
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * @return the fingerprint of the source files seen by the checkout that
+     *         returned the changes, or {@code null} if no manifest was recorded
+     */
+    @CheckForNull
+    static String getFingerprint(List<FolderDiff.Entry> changes) {
+        return changes instanceof EntryList ? ((EntryList) changes).fingerprint : null;
+    }
+
+    @Override
+    public FolderDiff.Entry get(int index) {
+        return entries.get(index);
+    }
+
+    @Override
+    public int size() {
+        return entries.size();
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        int size = entries.size();
+        byte[] types = new byte[(size + 3) / 4];
+        ByteArrayOutputStream block = new ByteArrayOutputStream();
+        DataOutputStream names = new DataOutputStream(block);
+        FrontCoding.Writer writer = new FrontCoding.Writer(names);
+        for (int i = 0; i < size; i++) {
+            FolderDiff.Entry entry = entries.get(i);
+            types[i >> 2] |= entry.getType().ordinal() << ((i & 3) << 1);
+            writer.write(entry.getFilename());
+        }
+        names.flush();
+        boolean compressed = block.size() >= COMPRESSION_THRESHOLD;
+        byte[] bytes = block.toByteArray();
+        if (compressed) {
+            ByteArrayOutputStream deflated = new ByteArrayOutputStream(bytes.length / 4);
+            try (DeflaterOutputStream deflater = new DeflaterOutputStream(deflated,
+                    new Deflater(Deflater.BEST_SPEED))) {
+                deflater.write(bytes);
+            }
+            bytes = deflated.toByteArray();
+        }
+        out.writeInt(size);
+        out.write(types);
+        out.writeBoolean(compressed);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        int size = in.readInt();
+        byte[] types = new byte[(size + 3) / 4];
+        in.readFully(types);
+        boolean compressed = in.readBoolean();
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        InputStream block = new ByteArrayInputStream(bytes);
+        if (compressed) {
+            block = new InflaterInputStream(block);
+        }
+        entries = new ArrayList<>(size);
+        try (DataInputStream names = new DataInputStream(block)) {
+            FrontCoding.Reader reader = new FrontCoding.Reader(names);
+            for (int i = 0; i < size; i++) {
+                entries.add(new FolderDiff.Entry(reader.read(), TYPES[types[i >> 2] >> ((i & 3) << 1) & 3]));
+            }
+        }
+    }
+}
@@ -1,13 +1,17 @@
 package hudson.plugins.filesystem_scm;
 
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
+import java.util.zip.GZIPOutputStream;
 
 import javax.annotation.CheckForNull;
 
@@ -17,6 +21,7 @@ import org.jenkinsci.Symbol;
 import org.kohsuke.accmod.Restricted;
 import org.kohsuke.accmod.restrictions.NoExternalUse;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.StaplerRequest;
 
@@ -34,6 +39,7 @@ import hudson.scm.SCMDescriptor;
 import hudson.scm.SCMRevisionState;
 import hudson.util.FormValidation;
 import jenkins.model.Jenkins;
+import jenkins.util.BuildListenerAdapter;
 import net.sf.json.JSONObject;
 
 /**
@@ -41,6 +47,12 @@ import net.sf.json.JSONObject;
  */
 public class FSSCM extends SCM {
 
+    /**
+     * The name of the artifact holding all changes of a checkout whose
+     * changelog is capped.
+     */
+    public static final String CHANGES_ARTIFACT = "fsscm-changes.txt.gz";
+
     /**
      * The source folder
      *
@@ -93,6 +105,86 @@ public class FSSCM extends SCM {
     @CheckForNull
     private FilterSettings filterSettings;
 
+    /**
+     * Number of threads scanning the source and workspace folders. Default is 1.
+     *
+     * @since TODO
+     */
+    private int scanThreads = 1;
+
+    /**
+     * If true, the source folder is watched for file system events and polling
+     * only scans it after events arrived. Default is false.
+     *
+     * @since TODO
+     */
+    private boolean watchSource;
+
+    /**
+     * Number of threads copying files into the workspace. Default is 1.
+     *
+     * @since TODO
+     */
+    private int copyThreads = 1;
+
+    /**
+     * If true, workspace files are hard links to the source files instead of
+     * copies, where the file system allows it. Default is false.
+     *
+     * @since TODO
+     */
+    private boolean hardLink;
+
+    /**
+     * If true, files are compared by content instead of by last modified time.
+     * Default is false.
+     *
+     * @since TODO
+     */
+    private boolean contentCompare;
+
+    /**
+     * If true, the {@link AllowDeleteList} is kept next to the workspace on the
+     * agent instead of in the job root dir. Default is false.
+     *
+     * @since TODO
+     */
+    private boolean agentAllowDeleteList;
+
+    /**
+     * If true, the changelog of a checkout is written in the binary
+     * {@link CompactChangelog} format instead of XML. Default is false.
+     *
+     * @since TODO
+     */
+    private boolean compactChangelog;
+
+    /**
+     * Number of changed files recorded in the changelog of a checkout, or 0 to
+     * record all. Above it, only the counts per top-level directory are kept
+     * for the rest. Default is 0.
+     *
+     * @since TODO
+     */
+    private int changelogLimit;
+
+    /**
+     * If true, all changes of a checkout whose changelog is capped are
+     * archived as {@link #CHANGES_ARTIFACT}. Default is false.
+     *
+     * @since TODO
+     */
+    private boolean archiveChanges;
+
+    /**
+     * If true, a checkout compares the source folder with the
+     * {@link CheckoutManifest} of the last checkout and only writes the changed
+     * files, without reading the workspace. Default is false.
+     *
+     * @since TODO
+     */
+    private boolean incrementalCheckout;
+
     @DataBoundConstructor
     public FSSCM(String path, boolean clearWorkspace, boolean copyHidden, boolean verboseLogging, FilterSettings filterSettings) {
         this.path = path;
@@ -174,6 +266,96 @@ public class FSSCM extends SCM {
         return filterSettings;
     }
 
+    public int getScanThreads() {
+        return Math.max(1, scanThreads);
+    }
+
+    @DataBoundSetter
+    public void setScanThreads(int scanThreads) {
+        this.scanThreads = Math.max(1, scanThreads);
+    }
+
+    public int getCopyThreads() {
+        return Math.max(1, copyThreads);
+    }
+
+    @DataBoundSetter
+    public void setCopyThreads(int copyThreads) {
+        this.copyThreads = Math.max(1, copyThreads);
+    }
+
+    public boolean isHardLink() {
+        return hardLink;
+    }
+
+    @DataBoundSetter
+    public void setHardLink(boolean hardLink) {
+        this.hardLink = hardLink;
+    }
+
+    public boolean isContentCompare() {
+        return contentCompare;
+    }
+
+    @DataBoundSetter
+    public void setContentCompare(boolean contentCompare) {
+        this.contentCompare = contentCompare;
+    }
+
+    public boolean isAgentAllowDeleteList() {
+        return agentAllowDeleteList;
+    }
+
+    @DataBoundSetter
+    public void setAgentAllowDeleteList(boolean agentAllowDeleteList) {
+        this.agentAllowDeleteList = agentAllowDeleteList;
+    }
+
+    public boolean isCompactChangelog() {
+        return compactChangelog;
+    }
+
+    @DataBoundSetter
+    public void setCompactChangelog(boolean compactChangelog) {
+        this.compactChangelog = compactChangelog;
+    }
+
+    public int getChangelogLimit() {
+        return Math.max(0, changelogLimit);
+    }
+
+    @DataBoundSetter
+    public void setChangelogLimit(int changelogLimit) {
+        this.changelogLimit = Math.max(0, changelogLimit);
+    }
+
+    public boolean isArchiveChanges() {
+        return archiveChanges;
+    }
+
+    @DataBoundSetter
+    public void setArchiveChanges(boolean archiveChanges) {
+        this.archiveChanges = archiveChanges;
+    }
+
+    public boolean isIncrementalCheckout() {
+        return incrementalCheckout;
+    }
+
+    @DataBoundSetter
+    public void setIncrementalCheckout(boolean incrementalCheckout) {
+        this.incrementalCheckout = incrementalCheckout;
+    }
+
+    public boolean isWatchSource() {
+        return watchSource;
+    }
+
+    @DataBoundSetter
+    public void setWatchSource(boolean watchSource) {
+        this.watchSource = watchSource;
+    }
+
     protected Object readResolve() {
         if (filterEnabled && filterSettings == null) {
             final List<FilterSelector> selectors;
@@ -202,7 +384,14 @@ public class FSSCM extends SCM {
         PrintStream log = launcher.getListener().getLogger();
         log.println("FSSCM.checkout " + path + " to " + workspace);
 
-        AllowDeleteList allowDeleteList = new AllowDeleteList(build.getParent().getRootDir());
+        // kept on the agent by the callable itself
+        AllowDeleteList allowDeleteList = agentAllowDeleteList ? null
+                : new AllowDeleteList(build.getParent().getRootDir());
+
+        if (watchSource) {
+            // everything that happens from now on is either copied or seen by the next poll
+            workspace.act(new SourceWatcher.Acknowledge(build.getParent().getFullName(), path, -1));
+        }
 
         if (clearWorkspace) {
             log.println("FSSCM.clearWorkspace...");
@@ -211,9 +400,9 @@ public class FSSCM extends SCM {
 
         // we will only delete a file if it is listed in the allowDeleteList
         // ie. we will only delete a file if it is copied by us
-        if (allowDeleteList.fileExists()) {
+        if (allowDeleteList != null && allowDeleteList.fileExists()) {
             allowDeleteList.load();
-        } else {
+        } else if (allowDeleteList != null) {
             // watch list save file doesn't exist
             // we will assume all existing files are under watch
             // i.e. everything can be deleted
@@ -222,53 +411,99 @@ public class FSSCM extends SCM {
                 // deleted
                 // running a RemoteListDir() on a not existing folder will throw an exception
                 // anyway, if the folder doesn't exist, we don't need to list the files
-                Set<String> existingFiles = workspace.act(new RemoteListDir());
-                allowDeleteList.setList(existingFiles);
+                allowDeleteList.setList(workspace);
             }
         }
 
         RemoteFolderDiff.CheckOut callable = new RemoteFolderDiff.CheckOut();
-        setupRemoteFolderDiff(callable, build.getParent(), allowDeleteList.getList());
+        setupRemoteFolderDiff(callable, build.getParent(), allowDeleteList != null ? allowDeleteList.getList() : null);
+
+        // the manifest stays next to the workspace, the agent checks it is still valid
+        callable.setUseManifest(incrementalCheckout && !clearWorkspace);
+        // a failed checkout leaves no state, the next poll compares with the workspace
+        File stateFile = FilesystemRevisionState.getFile(build.getParent().getRootDir());
+        Files.deleteIfExists(stateFile.toPath());
+        callable.setListener(listener);
         List<FolderDiff.Entry> list = workspace.act(callable);
+        String fingerprint = EntryList.getFingerprint(list);
+        if (fingerprint != null) {
+            new FilesystemRevisionState(callable.getConfigKey(), fingerprint).save(stateFile);
+        }
 
         // maintain the watch list
-        for (FolderDiff.Entry entry : list) {
-            if (FolderDiff.Entry.Type.DELETED.equals(entry.getType())) {
-                allowDeleteList.remove(entry.getFilename());
-            } else {
-                // added or modified
-                allowDeleteList.add(entry.getFilename());
-            }
+        if (allowDeleteList != null) {
+            allowDeleteList.update(list);
+            allowDeleteList.save();
         }
-        allowDeleteList.save();
 
-        // raw log
-        String str = callable.getLog();
-        if (str.length() > 0)
-            log.println(str);
-
-        printLogSummary(log, callable.getNewCount(), callable.getModifiedCount(), callable.getDeletedCount());
+        printLogSummary(log, list);
 
         processChangelog(build, changelogFile, list);
 
+        if (archiveChanges && changelogFile != null && getChangelogLimit() > 0 && list.size() > getChangelogLimit()) {
+            archiveChanges(build, launcher, listener, list);
+        }
+
         log.println("FSSCM.check completed in " + formatDuration(System.currentTimeMillis() - start));
     }
 
     protected void processChangelog(Run<?, ?> build, File changelogFile, List<FolderDiff.Entry> list)
-            throws FileNotFoundException {
+            throws IOException {
         // checking for null as the @CheckForNull Annotation @asks for by SCM.checkout
         if (changelogFile != null) {
             ChangelogSet.XMLSerializer serializer = createXMLSerializer();
-            ChangelogSet changeLogSet = new ChangelogSet(build, list);
-            serializer.save(changeLogSet, changelogFile);
+            if (compactChangelog) {
+                serializer.saveCompact(list, changelogFile, getChangelogLimit());
+            } else {
+                serializer.save(list, changelogFile, getChangelogLimit());
+            }
         }
     }
 
     /**
-     * Logs the count of files checked out.
+     * Archives all changes of a checkout, one "ACTION path" line each, as a
+     * gzip-compressed artifact of the build.
+     */
+    private void archiveChanges(Run<?, ?> build, Launcher launcher, TaskListener listener,
+            List<FolderDiff.Entry> list) throws IOException, InterruptedException {
+        FilePath dir = new FilePath(Files.createTempDirectory("fsscm-changes").toFile());
+        try {
+            FilePath file = dir.child(CHANGES_ARTIFACT);
+            try (PrintWriter out = new PrintWriter(new OutputStreamWriter(
+                    new GZIPOutputStream(file.write()), StandardCharsets.UTF_8))) {
+                for (FolderDiff.Entry entry : list) {
+                    out.print(Changelog.Path.getAction(entry.getType()));
+                    out.print(' ');
+                    out.println(entry.getFilename());
+                }
+            }
+            build.pickArtifactManager().archive(dir, launcher, BuildListenerAdapter.wrap(listener),
+                    Collections.singletonMap(CHANGES_ARTIFACT, CHANGES_ARTIFACT));
+            listener.getLogger().println("FSSCM: changelog capped at " + getChangelogLimit()
+                    + " files, all changes archived as " + CHANGES_ARTIFACT);
+        } finally {
+            dir.deleteRecursive();
+        }
+    }
+
+    /**
+     * Logs the count of files checked out. Counted from the list, as the counts
+     * of the callable stay on the agent.
      *
      */
-    private void printLogSummary(PrintStream log, int newCount, int modifiedCount, int deletedCount) {
+    private void printLogSummary(PrintStream log, List<FolderDiff.Entry> list) {
+        int newCount = 0;
+        int modifiedCount = 0;
+        int deletedCount = 0;
+        for (FolderDiff.Entry entry : list) {
+            if (FolderDiff.Entry.Type.NEW == entry.getType()) {
+                newCount++;
+            } else if (FolderDiff.Entry.Type.MODIFIED == entry.getType()) {
+                modifiedCount++;
+            } else {
+                deletedCount++;
+            }
+        }
         int total = newCount + modifiedCount + deletedCount;
 
         if (total > 0) {
@@ -289,6 +524,9 @@ public class FSSCM extends SCM {
      * <li>file deleted since last build time, we have to compare source and
      * destination folder</li>
      * </ul>
+     * If the last checkout completed with the current filter settings, the
+     * source folder is compared with the {@link CheckoutManifest} it left next
+     * to the workspace instead, and the workspace is not read at all.
      */
     private boolean poll(Job<?, ?> project, Launcher launcher, FilePath workspace, TaskListener listener)
             throws IOException, InterruptedException {
@@ -298,6 +536,47 @@ public class FSSCM extends SCM {
         PrintStream log = launcher.getListener().getLogger();
         log.println("FSSCM.pollChange: " + path);
 
+        RemoteFolderDiff.PollChange callable = new RemoteFolderDiff.PollChange();
+        setupRemoteFolderDiff(callable, project, null);
+
+        if (isLastCheckoutUsable(project, callable.getConfigKey(), log)) {
+            // only a flag is sent, the manifest is kept on the agent
+            callable.setUseManifest(true);
+        } else if (!agentAllowDeleteList) {
+            callable.setAllowDeleteList(loadAllowDeleteList(project, workspace));
+        }
+
+        callable.setListener(listener);
+        boolean changed = workspace.act(callable);
+        log.println("FSSCM.pollChange return " + changed);
+
+        log.println("FSSCM.poolChange completed in " + formatDuration(System.currentTimeMillis() - start));
+        return changed;
+    }
+
+    /**
+     * @return true if the last checkout of the job completed with the given
+     *         settings, and so left a {@link CheckoutManifest} to compare with
+     */
+    private static boolean isLastCheckoutUsable(Job<?, ?> project, String configKey, PrintStream log) {
+        try {
+            FilesystemRevisionState state = FilesystemRevisionState.load(
+                    FilesystemRevisionState.getFile(project.getRootDir()));
+            if (state == null) {
+                return false;
+            }
+            if (configKey.equals(state.getConfigKey())) {
+                return true;
+            }
+            log.println("FSSCM: filter settings changed since the last checkout");
+        } catch (IOException e) {
+            log.println("FSSCM: ignoring unreadable revision state: " + e.getMessage());
+        }
+        return false;
+    }
+
+    private Set<String> loadAllowDeleteList(Job<?, ?> project, FilePath workspace)
+            throws IOException, InterruptedException {
         AllowDeleteList allowDeleteList = new AllowDeleteList(project.getRootDir());
         // we will only delete a file if it is listed in the allowDeleteList
         // ie. we will only delete a file if it is copied by us
@@ -307,21 +586,27 @@ public class FSSCM extends SCM {
             // watch list save file doesn't exist
             // we will assume all existing files are under watch
             // ie. everything can be deleted
-            Set<String> existingFiles = workspace.act(new RemoteListDir());
-            allowDeleteList.setList(existingFiles);
+            allowDeleteList.setList(workspace);
         }
+        return allowDeleteList.getList();
+    }
 
-        RemoteFolderDiff.PollChange callable = new RemoteFolderDiff.PollChange();
-        setupRemoteFolderDiff(callable, project, allowDeleteList.getList());
+    private PollingResult compareFingerprint(Launcher launcher, FilePath workspace,
+            RemoteFolderDiff.Fingerprint callable, FilesystemRevisionState baseline)
+            throws IOException, InterruptedException {
+        long start = System.currentTimeMillis();
 
-        boolean changed = workspace.act(callable);
-        String str = callable.getLog();
-        if (str.length() > 0)
-            log.println(str);
+        PrintStream log = launcher.getListener().getLogger();
+        log.println("FSSCM.pollChange: " + path);
+
+        FilesystemRevisionState current = new FilesystemRevisionState(baseline.getConfigKey(),
+                workspace.act(callable));
+        boolean changed = !current.getFingerprint().equals(baseline.getFingerprint());
         log.println("FSSCM.pollChange return " + changed);
 
         log.println("FSSCM.poolChange completed in " + formatDuration(System.currentTimeMillis() - start));
-        return changed;
+        return new PollingResult(baseline, current,
+                changed ? PollingResult.Change.SIGNIFICANT : PollingResult.Change.NONE);
     }
 
     @SuppressWarnings("rawtypes")
@@ -346,12 +631,18 @@ public class FSSCM extends SCM {
 
         diff.setVerboseLogging(verboseLogging);
 
+        diff.setScanThreads(getScanThreads());
+
+        diff.setCopyThreads(getCopyThreads());
+
+        diff.setHardLink(hardLink);
+
+        diff.setContentCompare(contentCompare);
+
+        diff.setAgentAllowDeleteList(agentAllowDeleteList);
+
         if (filterSettings != null) {
-            if (filterSettings.isIncludeFilter()) {
-                diff.setIncludeFilter(getFilters());
-            } else {
-                diff.setExcludeFilter(getFilters());
-            }
+            diff.setFilterSettings(filterSettings);
         }
 
         diff.setAllowDeleteList(allowDeleteList);
@@ -401,6 +692,16 @@ public class FSSCM extends SCM {
                     .doCheckWildcard(value);
         }
 
+        @Restricted(NoExternalUse.class)
+        public FormValidation doCheckScanThreads(@QueryParameter String value) {
+            return FormValidation.validatePositiveInteger(value);
+        }
+
+        @Restricted(NoExternalUse.class)
+        public FormValidation doCheckCopyThreads(@QueryParameter String value) {
+            return FormValidation.validatePositiveInteger(value);
+        }
+
         @Override
         public boolean configure(StaplerRequest req, JSONObject formData) throws FormException {
             return true;
@@ -417,10 +718,24 @@ public class FSSCM extends SCM {
     @Override
     public SCMRevisionState calcRevisionsFromBuild(Run<?, ?> build, FilePath workspace, Launcher launcher,
                                                    TaskListener listener) throws IOException, InterruptedException {
-        // we cannot really calculate a sensible revision state for a filesystem folder
-        // therefore we return NONE and simply ignore the baseline in
-        // compareRemoteRevisionWith
-        return SCMRevisionState.NONE;
+        // the last checkout stored the fingerprint of exactly what it copied,
+        // so the source folder does not have to be walked again
+        try {
+            FilesystemRevisionState state = FilesystemRevisionState.load(
+                    FilesystemRevisionState.getFile(build.getParent().getRootDir()));
+            if (state != null) {
+                return state;
+            }
+        } catch (IOException e) {
+            listener.getLogger().println("FSSCM: ignoring unreadable revision state: " + e.getMessage());
+        }
+        if (workspace == null) {
+            // nowhere to run the scan, compareRemoteRevisionWith will do a full poll
+            return SCMRevisionState.NONE;
+        }
+        RemoteFolderDiff.Fingerprint callable = new RemoteFolderDiff.Fingerprint();
+        setupRemoteFolderDiff(callable, build.getParent(), null);
+        return new FilesystemRevisionState(callable.getConfigKey(), workspace.act(callable));
     }
 
     @Override
@@ -429,6 +744,33 @@ public class FSSCM extends SCM {
         if (launcher == null) {
             throw new IllegalArgumentException("Launcher cannot be null");
         }
+        long pendingEvents = 0;
+        if (watchSource && workspace != null) {
+            pendingEvents = workspace.act(new SourceWatcher.Query(project.getFullName(), path));
+            if (pendingEvents == 0) {
+                launcher.getListener().getLogger().println("FSSCM.pollChange: no file system events since the last scan");
+                return new PollingResult(baseline, baseline, PollingResult.Change.NONE);
+            }
+        }
+
+        PollingResult result = compareWithSource(project, launcher, workspace, listener, baseline);
+        if (pendingEvents != 0 && result.change == PollingResult.Change.NONE) {
+            // the events did not change anything we care about
+            workspace.act(new SourceWatcher.Acknowledge(project.getFullName(), path, pendingEvents));
+        }
+        return result;
+    }
+
+    private PollingResult compareWithSource(Job<?, ?> project, Launcher launcher, FilePath workspace,
+            TaskListener listener, SCMRevisionState baseline) throws IOException, InterruptedException {
+        if (baseline instanceof FilesystemRevisionState) {
+            RemoteFolderDiff.Fingerprint callable = new RemoteFolderDiff.Fingerprint();
+            setupRemoteFolderDiff(callable, project, null);
+            FilesystemRevisionState state = (FilesystemRevisionState) baseline;
+            if (state.getConfigKey().equals(callable.getConfigKey())) {
+                return compareFingerprint(launcher, workspace, callable, state);
+            }
+        }
         if (poll(project, launcher, workspace, listener)) {
             return PollingResult.SIGNIFICANT;
         } else {
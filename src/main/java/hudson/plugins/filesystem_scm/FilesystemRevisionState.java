@@ -0,0 +1,109 @@
+package hudson.plugins.filesystem_scm;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+
+import javax.annotation.CheckForNull;
+
+import hudson.scm.SCMRevisionState;
+
+/**
+ * The state of the source folder as seen by a build.
+ *
+ * <p>
+ * It holds a fingerprint of the path, size and last modified time of every
+ * visible source file, see {@link FolderDiff#getFingerprint()}. Polling only has
+ * to compute the fingerprint of the source folder again and compare it with this
+ * one; the workspace is not involved and only the fingerprint is sent back from
+ * the agent.
+ * </p>
+ *
+ * <p>
+ * The state seen by the last checkout of a job is stored in the job root dir,
+ * so a baseline is available without walking the source folder again.
+ * </p>
+ */
+public class FilesystemRevisionState extends SCMRevisionState {
+
+    static final String BASENAME = "fsscm_revision_state.dat";
+
+    private final String configKey;
+    private final String fingerprint;
+
+    /**
+     * @param configKey
+     *            the settings the fingerprint was computed with, see
+     *            {@link FolderDiff#getConfigKey()}
+     * @param fingerprint
+     *            the fingerprint of the source folder
+     */
+    public FilesystemRevisionState(String configKey, String fingerprint) {
+        this.configKey = configKey;
+        this.fingerprint = fingerprint;
+    }
+
+    public String getConfigKey() {
+        return configKey;
+    }
+
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * @param projectPath
+     *            the job root dir
+     * @return the file the state of the last checkout of that job is stored in
+     */
+    public static File getFile(File projectPath) {
+        return new File(projectPath, BASENAME);
+    }
+
+    /**
+     * Writes the state to a temporary file first, so the file is either
+     * complete or not there.
+     *
+     * @param file
+     *            see {@link #getFile(File)}
+     * @throws IOException
+     *             if the file cannot be written
+     */
+    public void save(File file) throws IOException {
+        File tmpFile = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(tmpFile.toPath())))) {
+            out.writeUTF(configKey);
+            out.writeUTF(fingerprint);
+        }
+        Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * @param file
+     *            see {@link #getFile(File)}
+     * @return the stored state, {@code null} if there is none
+     * @throws IOException
+     *             if the file cannot be read
+     */
+    @CheckForNull
+    public static FilesystemRevisionState load(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+            return new FilesystemRevisionState(in.readUTF(), in.readUTF());
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "FilesystemRevisionState[" + fingerprint + "]";
+    }
+}
@@ -43,6 +43,10 @@ public class FilterSettings implements Describable<FilterSettings> {
     private final boolean includeFilter;
     @Nonnull
     private final List<FilterSelector> selectors;
+    /**
+     * The wildcards compiled, shared through {@link WildcardMatcher#get(boolean, String[])}.
+     */
+    private transient volatile WildcardMatcher matcher;
 
     @DataBoundConstructor
     public FilterSettings(boolean includeFilter, List<FilterSelector> selectors) {
@@ -70,6 +74,20 @@ public class FilterSettings implements Describable<FilterSettings> {
     public boolean isIncludeFilter() {
         return includeFilter;
     }
+
+    /**
+     * @return the compiled wildcards, sent along to the agent
+     */
+    @Nonnull
+    WildcardMatcher getMatcher() {
+        WildcardMatcher result = matcher;
+        if (result == null) {
+            List<String> wildcards = getWildcards();
+            result = WildcardMatcher.get(includeFilter, wildcards.toArray(new String[0]));
+            matcher = result;
+        }
+        return result;
+    }
     
     @Override
     public Descriptor<FilterSettings> getDescriptor() {
@@ -8,18 +8,18 @@ import java.io.StringWriter;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Iterator;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.CheckForNull;
 
 import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.filefilter.AndFileFilter;
-import org.apache.commons.io.filefilter.HiddenFileFilter;
-import org.apache.commons.io.filefilter.IOFileFilter;
-import org.apache.commons.io.filefilter.NotFileFilter;
-import org.apache.commons.io.filefilter.TrueFileFilter;
 
 import hudson.plugins.filesystem_scm.FolderDiff.Entry.Type;
 import hudson.remoting.VirtualChannel;
@@ -40,6 +40,11 @@ import jenkins.MasterToSlaveFileCallable;
  * <li>check if there are deleted files in the source folder</li>
  * </ul>
  *
+ * <p>
+ * Both checks are done by {@link MergedTreeWalker}, either separately or
+ * together in a single pass with {@link #getChanges(long, boolean)}
+ * </p>
+ *
  * @param <T>
  *            Type of the item being returned by the callable
  * @author Sam NG
@@ -55,11 +60,20 @@ public class FolderDiff<T> extends MasterToSlaveFileCallable<T> implements Seria
     private boolean filterEnabled;
     private boolean includeFilter;
     private String[] filters;
+    @CheckForNull
+    private WildcardMatcher matcher;
     private Set<String> allowDeleteList;
+    private int scanThreads = 1;
+    private int copyThreads = 1;
+    private boolean contentCompare;
+    @CheckForNull
+    private transient CheckoutManifest linkedBaseline;
 
     private int newCount = 0;
     private int modifiedCount = 0;
     private int deletedCount = 0;
+    private long directoriesListed = 0;
+    private long attributesRead = 0;
 
     public FolderDiff() {
         filterEnabled = false;
@@ -73,6 +87,10 @@ public class FolderDiff<T> extends MasterToSlaveFileCallable<T> implements Seria
         this.dstPath = dstPath;
     }
 
+    public String getDstPath() {
+        return dstPath;
+    }
+
     public void setIgnoreHidden(boolean ignoreHidden) {
         this.ignoreHidden = ignoreHidden;
     }
@@ -81,21 +99,73 @@ public class FolderDiff<T> extends MasterToSlaveFileCallable<T> implements Seria
         filterEnabled = true;
         includeFilter = true;
         this.filters = filters;
+        this.matcher = filters != null ? WildcardMatcher.get(true, filters) : null;
     }
 
     public void setExcludeFilter(String[] filters) {
         filterEnabled = true;
         includeFilter = false;
         this.filters = filters;
+        this.matcher = filters != null ? WildcardMatcher.get(false, filters) : null;
+    }
+
+    void setFilterSettings(FilterSettings filterSettings) {
+        List<String> wildcards = filterSettings.getWildcards();
+        filterEnabled = true;
+        includeFilter = filterSettings.isIncludeFilter();
+        filters = wildcards.toArray(new String[0]);
+        matcher = filterSettings.getMatcher();
     }
 
     public void setAllowDeleteList(Set<String> allowDeleteList) {
         this.allowDeleteList = allowDeleteList;
     }
 
+    /**
+     * @param scanThreads
+     *            number of threads used to scan the directories, 1 scans them
+     *            on the calling thread
+     */
+    public void setScanThreads(int scanThreads) {
+        this.scanThreads = scanThreads;
+    }
+
+    /**
+     * @param copyThreads
+     *            number of threads copying the new and modified files, 1 copies
+     *            them on the walking thread; {@link #copyFile(File, File)} must
+     *            be thread safe if greater than 1
+     */
+    public void setCopyThreads(int copyThreads) {
+        this.copyThreads = copyThreads;
+    }
+
+    /**
+     * @param contentCompare
+     *            if true, a file is modified if its content differs from the
+     *            workspace file, instead of if it is newer
+     */
+    public void setContentCompare(boolean contentCompare) {
+        this.contentCompare = contentCompare;
+    }
+
+    /**
+     * @param linkedBaseline
+     *            the manifest of the last checkout into the destination
+     *            folder. With content compare, a destination file that is a
+     *            hard link to its source file always has the content of the
+     *            source, so the source is compared with the digest recorded
+     *            here instead; without a record it counts as modified.
+     */
+    public void setLinkedBaseline(@CheckForNull CheckoutManifest linkedBaseline) {
+        this.linkedBaseline = linkedBaseline;
+    }
+
     public int getNewCount() { return newCount; }
     public int getModifiedCount() { return modifiedCount; }
     public int getDeletedCount() { return deletedCount; }
+    public long getDirectoriesListed() { return directoriesListed; }
+    public long getAttributesRead() { return attributesRead; }
 
     /**
      *
@@ -149,37 +219,7 @@ public class FolderDiff<T> extends MasterToSlaveFileCallable<T> implements Seria
      *             when source directory is not found or copying is not successful
      */
     public List<Entry> getNewOrModifiedFiles(long time, boolean breakOnceFound) throws IOException {
-        File src = new File(srcPath);
-        File dst = new File(dstPath);
-
-        ArrayList<Entry> list = new ArrayList<Entry>();
-        if (src.isDirectory()) {
-            Iterator<File> it = (Iterator<File>) FileUtils.iterateFiles(src, createAntPatternFileFilter(),
-                    getDirFilter());
-            while (it.hasNext()) {
-                File file = it.next();
-                String relativeName = getRelativeName(file.getAbsolutePath(), src.getAbsolutePath());
-                // need to change dst to see if there is such a file
-                File tmp = new File(dst, relativeName);
-                boolean newOrModified = true;
-                if (!tmp.exists()) {// new
-                    list.add(createAndLogg(relativeName, Entry.Type.NEW));
-                } else if (FileUtils.isFileNewer(file, time) || FileUtils.isFileNewer(file, tmp)) { // modified
-                    list.add(createAndLogg(relativeName, Entry.Type.MODIFIED));
-                } else {
-                    newOrModified = false;
-                }
-                if (newOrModified) {
-                    if (breakOnceFound) {
-                        return list;
-                    }
-                    copyFile(file, tmp);
-                }
-            }
-        } else {
-            throw new IOException(String.format("Source Directory not found! (%s)", src.getAbsolutePath()));
-        }
-        return list;
+        return diff(time, breakOnceFound, true, false, null);
     }
 
     protected Entry createAndLogg(String relativeName, Type type) {
@@ -192,25 +232,17 @@ public class FolderDiff<T> extends MasterToSlaveFileCallable<T> implements Seria
         return new Entry(relativeName, type);
     }
 
-    private AndFileFilter createAntPatternFileFilter() {
-        AndFileFilter fileFilter = new AndFileFilter();
-        fileFilter.addFileFilter(getDirFilter());
+    @CheckForNull
+    private WildcardMatcher createMatcher(File src) {
         // AgeFileFilter is base on lastModifiedDate, but if you copy a file on Windows,
         // the lastModifiedDate is not changed
         // only the creation date is updated, so we can't use the following
         // AgeFileFiilter
         // fileFilter.addFileFilter(new AgeFileFilter(time, false /* accept newer */));
-        if (filterEnabled && null != filters && filters.length > 0) {
-            for (int i = 0; i < filters.length; i++) {
-                IOFileFilter iof = new SimpleAntWildcardFilter(filters[i]);
-                if (includeFilter) {
-                    fileFilter.addFileFilter(iof);
-                } else {
-                    fileFilter.addFileFilter(new NotFileFilter(iof));
-                }
-            }
+        if (filterEnabled && null != matcher && filters.length > 0) {
+            return matcher.rootedAt(src);
         }
-        return fileFilter;
+        return null;
     }
 
     /**
@@ -255,46 +287,443 @@ public class FolderDiff<T> extends MasterToSlaveFileCallable<T> implements Seria
      *             if IO error occurs when deleting a file
      */
     public List<Entry> getFiles2Delete(boolean breakOnceFound) throws IOException {
+        return diff(0, breakOnceFound, false, true, null);
+    }
+
+    /**
+     * Finds the new, modified and deleted files in a single walk over the source
+     * and destination folders, copying and deleting files as they are found.
+     * <p>
+     * The result is the same as calling {@link #getNewOrModifiedFiles(long, boolean)}
+     * followed by {@link #getFiles2Delete(boolean)}, but every directory is only
+     * read once. Entries are returned in sorted, depth-first order.
+     * </p>
+     *
+     * @param time
+     *            should be the last build time, see
+     *            {@link #getNewOrModifiedFiles(long, boolean)}
+     * @param breakOnceFound
+     *            to improve performance, we will return once we found the 1st
+     *            change
+     * @return the list of new, modified and deleted files
+     * @throws IOException
+     *             when source directory is not found or copying is not successful
+     */
+    public List<Entry> getChanges(long time, boolean breakOnceFound) throws IOException {
+        return diff(time, breakOnceFound, true, true, null);
+    }
+
+    /**
+     * Same as {@link #getChanges(long, boolean)}, additionally recording every
+     * visible source file in the given manifest, see {@link #createManifest()}.
+     *
+     * @param time
+     *            should be the last build time
+     * @param breakOnceFound
+     *            to improve performance, we will return once we found the 1st
+     *            change
+     * @param manifest
+     *            receives all visible source files
+     * @return the list of new, modified and deleted files
+     * @throws IOException
+     *             when source directory is not found or copying is not successful
+     */
+    public List<Entry> getChanges(long time, boolean breakOnceFound, final CheckoutManifest manifest)
+            throws IOException {
+        return diff(time, breakOnceFound, true, true, manifest);
+    }
+
+    /**
+     * @return an empty manifest for the current settings, with content digests
+     *         if the content is compared
+     */
+    public CheckoutManifest createManifest() {
+        return new CheckoutManifest(getConfigKey(), contentCompare);
+    }
+
+    /**
+     * Checks whether the source folder differs from the state recorded in the
+     * manifest, without looking at the destination folder at all.
+     *
+     * @param manifest
+     *            the manifest written by the last checkout
+     * @param checkDeleted
+     *            whether files removed from the source count as a change
+     * @return true if a file is new, modified or, if requested, deleted
+     * @throws IOException
+     *             when source directory is not found
+     */
+    public boolean isChangedSince(final CheckoutManifest manifest, boolean checkDeleted) throws IOException {
+        File src = new File(srcPath);
+        if (!src.isDirectory()) {
+            throw new IOException(String.format("Source Directory not found! (%s)", src.getAbsolutePath()));
+        }
+        final AtomicInteger unchanged = new AtomicInteger();
+        final AtomicReference<Entry> change = new AtomicReference<>();
+        final DigestCache cache = contentCompare ? DigestCache.load(getDigestCacheFile()) : null;
+        MergedTreeWalker walker = new MergedTreeWalker(src, null, ignoreHidden, createMatcher(src));
+        walker.setReportNewOrModified(false);
+        walker.setReportDeleted(false);
+        walker.setParallelism(scanThreads);
+        walker.setSourceListener(new MergedTreeWalker.SourceListener() {
+            @Override
+            public boolean source(String relativeName, File srcFile, BasicFileAttributes attrs) throws IOException {
+                CheckoutManifest.Record record = manifest.get(relativeName);
+                if (record == null) {
+                    change.compareAndSet(null, new Entry(relativeName, Type.NEW));
+                    return false;
+                }
+                if (!record.matches(attrs) && (cache == null || isModified(cache, record, srcFile, attrs))) {
+                    change.compareAndSet(null, new Entry(relativeName, Type.MODIFIED));
+                    return false;
+                }
+                unchanged.incrementAndGet();
+                return true;
+            }
+        });
+        walker.walk(new MergedTreeWalker.Visitor() {
+            @Override
+            public boolean visit(Type type, String relativeName, File srcFile, File dstFile) {
+                return true;
+            }
+        });
+        countWalk(walker);
+        if (cache != null) {
+            cache.save(false);
+        }
+
+        Entry entry = change.get();
+        if (entry != null) {
+            createAndLogg(entry.getFilename(), entry.getType());
+            return true;
+        }
+        int deleted = manifest.size() - unchanged.get();
+        if (checkDeleted && deleted > 0) {
+            log(deleted + " file(s) deleted since the last checkout");
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Finds the new, modified and deleted files by comparing the source folder
+     * with the manifest of the last checkout, and copies and deletes them like
+     * {@link #getChanges(long, boolean)}. Only the changed files are touched in
+     * the destination folder, which is not listed at all, so it must still hold
+     * the files of the last checkout.
+     *
+     * @param previous
+     *            the manifest written by the last checkout into this
+     *            destination folder
+     * @param manifest
+     *            receives all visible source files, see
+     *            {@link #createManifest()}
+     * @return the list of new, modified and deleted files, in the order
+     *         {@link #getChanges(long, boolean)} returns them
+     * @throws IOException
+     *             when source directory is not found or copying is not successful
+     */
+    public List<Entry> getChangesSince(final CheckoutManifest previous, final CheckoutManifest manifest)
+            throws IOException {
+        File src = new File(srcPath);
+        if (!src.isDirectory()) {
+            throw new IOException(String.format("Source Directory not found! (%s)", src.getAbsolutePath()));
+        }
+        final List<Entry> changes = Collections.synchronizedList(new ArrayList<Entry>());
+        checkDigests(manifest);
+        final DigestCache cache = contentCompare ? DigestCache.load(getDigestCacheFile()) : null;
+        MergedTreeWalker walker = new MergedTreeWalker(src, null, ignoreHidden, createMatcher(src));
+        walker.setReportNewOrModified(false);
+        walker.setReportDeleted(false);
+        walker.setParallelism(scanThreads);
+        walker.setSourceListener(new MergedTreeWalker.SourceListener() {
+            @Override
+            public boolean source(String relativeName, File srcFile, BasicFileAttributes attrs) throws IOException {
+                record(manifest, cache, relativeName, srcFile, attrs);
+                CheckoutManifest.Record record = previous.get(relativeName);
+                if (record == null) {
+                    changes.add(new Entry(relativeName, Type.NEW));
+                } else if (!record.matches(attrs)
+                        && (cache == null || isModified(cache, record, srcFile, attrs))) {
+                    changes.add(new Entry(relativeName, Type.MODIFIED));
+                }
+                return true;
+            }
+        });
+        walker.walk(new MergedTreeWalker.Visitor() {
+            @Override
+            public boolean visit(Type type, String relativeName, File srcFile, File dstFile) {
+                return true;
+            }
+        });
+        countWalk(walker);
+        if (cache != null) {
+            cache.save(false);
+        }
+        for (String relativeName : previous.getNames()) {
+            if (manifest.get(relativeName) == null
+                    && (allowDeleteList == null || allowDeleteList.contains(relativeName))) {
+                changes.add(new Entry(relativeName, Type.DELETED));
+            }
+        }
+        // the scanning threads add the changes in any order
+        Collections.sort(changes, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry a, Entry b) {
+                return comparePaths(a.getFilename(), b.getFilename());
+            }
+        });
+
+        final CopyPool copyPool = copyThreads > 1 ? new CopyPool(this, copyThreads) : null;
+        final List<Entry> list = new ArrayList<Entry>(changes.size());
+        try {
+            for (Entry change : changes) {
+                list.add(createAndLogg(change.getFilename(), change.getType()));
+                File dstFile = new File(dstPath, change.getFilename());
+                if (Type.DELETED == change.getType()) {
+                    delete(dstFile);
+                } else if (copyPool != null) {
+                    copyPool.submit(new File(src, change.getFilename()), dstFile);
+                } else {
+                    copyFile(new File(src, change.getFilename()), dstFile);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            if (copyPool != null) {
+                copyPool.abort();
+            }
+            throw e;
+        }
+        if (copyPool != null) {
+            copyPool.finish();
+        }
+        return list;
+    }
+
+    /**
+     * Compares relative names in the depth-first order of the
+     * {@link MergedTreeWalker}: segment by segment, so the files below a
+     * directory come right after its name.
+     */
+    static int comparePaths(String a, String b) {
+        int max = Math.min(a.length(), b.length());
+        for (int i = 0; i < max; i++) {
+            char x = a.charAt(i);
+            char y = b.charAt(i);
+            if (x != y) {
+                if (x == File.separatorChar) {
+                    return -1;
+                }
+                if (y == File.separatorChar) {
+                    return 1;
+                }
+                return x - y;
+            }
+        }
+        return a.length() - b.length();
+    }
+
+    /**
+     * Computes the fingerprint of the visible source files, see
+     * {@link FilesystemRevisionState}. The workspace is not looked at.
+     *
+     * @return the hex encoded fingerprint
+     * @throws IOException
+     *             when source directory is not found
+     */
+    public String getFingerprint() throws IOException {
+        File src = new File(srcPath);
+        if (!src.isDirectory()) {
+            throw new IOException(String.format("Source Directory not found! (%s)", src.getAbsolutePath()));
+        }
+        final TreeFingerprint fingerprint = new TreeFingerprint();
+        final DigestCache cache = contentCompare ? DigestCache.load(getDigestCacheFile()) : null;
+        MergedTreeWalker walker = new MergedTreeWalker(src, null, ignoreHidden, createMatcher(src));
+        walker.setReportNewOrModified(false);
+        walker.setReportDeleted(false);
+        walker.setParallelism(scanThreads);
+        walker.setSourceListener(new MergedTreeWalker.SourceListener() {
+            @Override
+            public boolean source(String relativeName, File srcFile, BasicFileAttributes attrs) throws IOException {
+                // with content compare, a touched file keeps its fingerprint
+                long version = cache != null ? cache.digest(srcFile, attrs) : attrs.lastModifiedTime().toMillis();
+                fingerprint.add(relativeName, attrs.size(), version);
+                return true;
+            }
+        });
+        walker.walk(new MergedTreeWalker.Visitor() {
+            @Override
+            public boolean visit(Type type, String relativeName, File srcFile, File dstFile) {
+                return true;
+            }
+        });
+        countWalk(walker);
+        if (cache != null) {
+            cache.save(false);
+        }
+        return fingerprint.digest();
+    }
+
+    /**
+     * @return a key identifying the settings that decide which source files are
+     *         visible and how they are compared, so that a
+     *         {@link CheckoutManifest} recorded with other settings is not used
+     */
+    public String getConfigKey() {
+        StringBuilder key = new StringBuilder();
+        key.append(ignoreHidden ? 'H' : 'h');
+        key.append(contentCompare ? 'C' : 'c');
+        if (filterEnabled && null != filters) {
+            key.append(includeFilter ? 'I' : 'E');
+            for (String filter : filters) {
+                key.append('\n').append(filter);
+            }
+        }
+        return key.toString();
+    }
+
+    private List<Entry> diff(long time, final boolean breakOnceFound, boolean newOrModified, boolean deleted,
+            @CheckForNull final CheckoutManifest manifest) throws IOException {
         File src = new File(srcPath);
         File dst = new File(dstPath);
+        if (newOrModified && !src.isDirectory()) {
+            throw new IOException(String.format("Source Directory not found! (%s)", src.getAbsolutePath()));
+        }
 
-        IOFileFilter dirFilter = getDirFilter();
-        AndFileFilter fileFilter = createAntPatternFileFilter();
-        // this is the full list of all viewable/available source files
-        Collection<File> allSources = new ArrayList<>();
-        if (src.isDirectory()) {
-            allSources = (Collection<File>) FileUtils.listFiles(src, fileFilter, dirFilter);
-        }
-
-        ArrayList<Entry> list = new ArrayList<Entry>();
-        if (dst.isDirectory()) {
-            // now get the list of all sources in workspace (destination)
-            Iterator<File> it = (Iterator<File>) FileUtils.iterateFiles(dst, TrueFileFilter.TRUE, TrueFileFilter.TRUE);
-            while (it.hasNext()) {
-                File file = it.next();
-                String relativeName = getRelativeName(file.getAbsolutePath(), dst.getAbsolutePath());
-                File tmp = new File(src, relativeName);
-                if (!allSources.contains(tmp) && (null == allowDeleteList || allowDeleteList.contains(relativeName))) {
-                    list.add(createAndLogg(relativeName, Type.DELETED));
+        MergedTreeWalker walker = new MergedTreeWalker(src, dst, ignoreHidden, createMatcher(src));
+        walker.setTime(time);
+        walker.setReportNewOrModified(newOrModified);
+        walker.setReportDeleted(deleted);
+        walker.setAllowDeleteList(allowDeleteList);
+        walker.setParallelism(scanThreads);
+        final DigestCache cache = contentCompare ? DigestCache.load(getDigestCacheFile()) : null;
+        if (manifest != null) {
+            checkDigests(manifest);
+            walker.setSourceListener(new MergedTreeWalker.SourceListener() {
+                @Override
+                public boolean source(String relativeName, File srcFile, BasicFileAttributes attrs)
+                        throws IOException {
+                    record(manifest, cache, relativeName, srcFile, attrs);
+                    return true;
+                }
+            });
+        }
+        if (cache != null) {
+            walker.setContentComparator(new MergedTreeWalker.ContentComparator() {
+                @Override
+                public boolean isModified(String relativeName, File srcFile, BasicFileAttributes srcAttrs,
+                        File dstFile, BasicFileAttributes dstAttrs) throws IOException {
+                    if (isSameFile(srcAttrs, dstAttrs)) {
+                        // edited in place, a hard link always matches its source
+                        CheckoutManifest.Record record = linkedBaseline == null || !linkedBaseline.hasDigests()
+                                ? null : linkedBaseline.get(relativeName);
+                        return record == null || FolderDiff.isModified(cache, record, srcFile, srcAttrs);
+                    }
+                    return srcAttrs.size() != dstAttrs.size()
+                            || cache.digest(srcFile, srcAttrs) != cache.digest(dstFile, dstAttrs);
+                }
+            });
+        }
+
+        final CopyPool copyPool = copyThreads > 1 && !breakOnceFound ? new CopyPool(this, copyThreads) : null;
+        final List<Entry> list = new ArrayList<Entry>();
+        try {
+            walker.walk(new MergedTreeWalker.Visitor() {
+                @Override
+                public boolean visit(Type type, String relativeName, File srcFile, File dstFile) throws IOException {
+                    list.add(createAndLogg(relativeName, type));
                     if (breakOnceFound) {
-                        return list;
+                        return false;
                     }
-                    try {
-                        boolean deleted = deleteFile(file);
-                        if (!deleted) {
-                            log("file.delete() failed: " + file.getAbsolutePath());
-                        }
-                    } catch (SecurityException e) {
-                        log("Can't delete " + file.getAbsolutePath(), e);
+                    if (Type.DELETED == type) {
+                        delete(dstFile);
+                    } else if (copyPool != null) {
+                        copyPool.submit(srcFile, dstFile);
+                    } else {
+                        copyFile(srcFile, dstFile);
                     }
+                    return true;
                 }
+            });
+        } catch (IOException | RuntimeException e) {
+            if (copyPool != null) {
+                copyPool.abort();
             }
+            throw e;
+        }
+        countWalk(walker);
+        if (copyPool != null) {
+            copyPool.finish();
+        }
+        if (cache != null) {
+            // a complete walk asked for every file still worth caching
+            cache.save(!breakOnceFound && newOrModified);
         }
         return list;
     }
 
-    private IOFileFilter getDirFilter() {
-        return ignoreHidden ? HiddenFileFilter.VISIBLE : TrueFileFilter.TRUE;
+    /**
+     * Adds the directory listings and {@code stat} calls of a walk to the totals
+     * of this diff, and logs them.
+     */
+    private void countWalk(MergedTreeWalker walker) {
+        directoriesListed += walker.getDirectoriesListed();
+        attributesRead += walker.getAttributesRead();
+        log(String.format("Walked %d directories, read the attributes of %d entries", walker.getDirectoriesListed(),
+                walker.getAttributesRead()));
+    }
+
+    /**
+     * Compares a source file whose metadata changed with the digest recorded
+     * by the last checkout. The workspace copy is not read.
+     */
+    private static boolean isModified(DigestCache cache, CheckoutManifest.Record record, File srcFile,
+            BasicFileAttributes srcAttrs) throws IOException {
+        return record.getSize() != srcAttrs.size() || record.getDigest() != cache.digest(srcFile, srcAttrs);
+    }
+
+    private static boolean isSameFile(BasicFileAttributes srcAttrs, BasicFileAttributes dstAttrs) {
+        Object key = srcAttrs.fileKey();
+        return key != null && key.equals(dstAttrs.fileKey());
+    }
+
+    /**
+     * The digests recorded by a checkout are compared with by the next one, a
+     * manifest without them would make every touched file look modified.
+     */
+    private void checkDigests(CheckoutManifest manifest) {
+        if (manifest.hasDigests() != contentCompare) {
+            throw new IllegalArgumentException("Manifest does not match the content compare setting");
+        }
+    }
+
+    private static void record(CheckoutManifest manifest, @CheckForNull DigestCache cache, String relativeName,
+            File srcFile, BasicFileAttributes attrs) throws IOException {
+        if (cache != null) {
+            manifest.put(relativeName, attrs, cache.digest(srcFile, attrs));
+        } else {
+            manifest.put(relativeName, attrs);
+        }
+    }
+
+    private void delete(File file) throws IOException {
+        try {
+            boolean deleted = deleteFile(file);
+            if (!deleted) {
+                log("file.delete() failed: " + file.getAbsolutePath());
+            }
+        } catch (SecurityException e) {
+            log("Can't delete " + file.getAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * @return where content digests are cached between runs, {@code null} to
+     *         keep them in memory only
+     */
+    @CheckForNull
+    protected File getDigestCacheFile() {
+        return null;
     }
 
     /**
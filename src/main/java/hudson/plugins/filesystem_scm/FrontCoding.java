@@ -0,0 +1,108 @@
+package hudson.plugins.filesystem_scm;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.IOException;
+
+import javax.annotation.CheckForNull;
+
+/**
+ * Writes and reads names front-coded, as all binary formats of the plugin do:
+ * each name only stores the part that differs from the previous one, as the
+ * length of the common prefix (an unsigned short) followed by the rest of the
+ * name ({@link DataOutput#writeUTF}). Sorted names mostly share their folder,
+ * so the rest is short.
+ */
+final class FrontCoding {
+
+    /**
+     * The longest common prefix written, a longer one is cut and the rest
+     * written in full.
+     */
+    static final int MAX_PREFIX = 0xfffe;
+
+    /**
+     * Written instead of a prefix to end names whose count is not known up
+     * front.
+     */
+    private static final int END = 0xffff;
+
+    private FrontCoding() {
+    }
+
+    static int commonPrefix(String a, String b) {
+        int max = Math.min(Math.min(a.length(), b.length()), MAX_PREFIX);
+        int i = 0;
+        while (i < max && a.charAt(i) == b.charAt(i)) {
+            i++;
+        }
+        return i;
+    }
+
+    static final class Writer {
+
+        private final DataOutput out;
+        private String previous = "";
+
+        Writer(DataOutput out) {
+            this.out = out;
+        }
+
+        void write(String name) throws IOException {
+            int prefix = commonPrefix(previous, name);
+            out.writeShort(prefix);
+            out.writeUTF(name.substring(prefix));
+            previous = name;
+        }
+
+        /**
+         * Marks the end of the names, for {@link Reader#next()}.
+         */
+        void end() throws IOException {
+            out.writeShort(END);
+        }
+    }
+
+    static final class Reader {
+
+        private final DataInput in;
+        private String previous = "";
+
+        Reader(DataInput in) {
+            this.in = in;
+        }
+
+        /**
+         * @return the next name, where the count of names is known
+         * @throws IOException
+         *             if the names end or are corrupt
+         */
+        String read() throws IOException {
+            String name = next();
+            if (name == null) {
+                throw new EOFException("Unexpected end of names");
+            }
+            return name;
+        }
+
+        /**
+         * @return the next name, {@code null} at the end written by
+         *         {@link Writer#end()}
+         * @throws IOException
+         *             if the names are corrupt
+         */
+        @CheckForNull
+        String next() throws IOException {
+            int prefix = in.readUnsignedShort();
+            if (prefix == END) {
+                return null;
+            }
+            if (prefix > previous.length()) {
+                throw new IOException("Corrupt front-coded name, prefix " + prefix + " of \"" + previous + "\"");
+            }
+            previous = previous.substring(0, prefix) + in.readUTF();
+            return previous;
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package hudson.plugins.filesystem_scm;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.Set;
+
+/**
+ * Copies a file to another file on the same machine without moving the bytes
+ * through the Java heap.
+ *
+ * <p>
+ * {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}
+ * lets the kernel do the copy ({@code sendfile} or, with newer JDKs,
+ * {@code copy_file_range} on Linux, which may even share the blocks on file
+ * systems like XFS or Btrfs). Like {@link hudson.FilePath#copyToWithPermission},
+ * the permissions and the last modified time of the source are applied to the
+ * copy. Only used on file systems with POSIX permissions; elsewhere
+ * {@link RemoteFolderDiff} keeps using {@link hudson.FilePath}.
+ * </p>
+ *
+ * <p>
+ * The target is opened right away; its folder is only created, and a read-only
+ * target only made writable, when opening fails for that reason. Most copies
+ * replace an existing, writable file, and then only need the {@code stat} of
+ * the target that tells whether it is a hard link to the source.
+ * </p>
+ *
+ * <p>
+ * For workspaces that are only read, {@link #link(File, File)} avoids the copy
+ * altogether.
+ * </p>
+ */
+final class LocalFileCopy {
+
+    private static final boolean POSIX = FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+
+    private LocalFileCopy() {
+    }
+
+    /**
+     * @return true if {@link #copy(File, File)} can be used on this machine
+     */
+    static boolean isSupported() {
+        return POSIX;
+    }
+
+    /**
+     * @param src
+     *            Source File
+     * @param dst
+     *            Destination File, overwritten if it exists, even if read-only
+     * @throws IOException
+     *             when copying is not successful
+     */
+    static void copy(File src, File dst) throws IOException {
+        Path source = src.toPath();
+        Path target = dst.toPath();
+        PosixFileAttributes attrs = Files.readAttributes(source, PosixFileAttributes.class);
+        PosixFileAttributeView targetView = Files.getFileAttributeView(target, PosixFileAttributeView.class);
+        unlink(src, dst);
+
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+                FileChannel out = openTarget(target, targetView)) {
+            long size = in.size();
+            long position = 0;
+            while (position < size) {
+                long transferred = in.transferTo(position, size - position, out);
+                if (transferred <= 0) {
+                    // the source has been truncated meanwhile
+                    break;
+                }
+                position += transferred;
+            }
+        }
+
+        targetView.setPermissions(attrs.permissions());
+        targetView.setTimes(attrs.lastModifiedTime(), null, null);
+    }
+
+    private static FileChannel openTarget(Path target, PosixFileAttributeView targetView) throws IOException {
+        try {
+            return FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+        } catch (NoSuchFileException e) {
+            Path parent = target.getParent();
+            if (parent == null) {
+                throw e;
+            }
+            Files.createDirectories(parent);
+        } catch (AccessDeniedException e) {
+            // if not write-able, then we can't copy, have to set it to write-able
+            Set<PosixFilePermission> permissions;
+            try {
+                permissions = targetView.readAttributes().permissions();
+            } catch (NoSuchFileException missing) {
+                // no target to make write-able, it is the folder that denies creating it
+                throw e;
+            }
+            if (!permissions.add(PosixFilePermission.OWNER_WRITE)) {
+                // already write-able, denied for another reason
+                throw e;
+            }
+            targetView.setPermissions(permissions);
+        }
+        return FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    /**
+     * Deletes the destination if it is the source itself, i.e. a hard link to
+     * it left by a checkout with {@link #link(File, File)}. Writing to it would
+     * change the source; opening it truncated would even empty the source
+     * before it is read.
+     *
+     * @param src
+     *            Source File
+     * @param dst
+     *            Destination File, about to be written
+     * @throws IOException
+     *             when the destination cannot be deleted
+     */
+    static void unlink(File src, File dst) throws IOException {
+        boolean same;
+        try {
+            same = Files.isSameFile(src.toPath(), dst.toPath());
+        } catch (NoSuchFileException e) {
+            return;
+        }
+        if (same) {
+            Files.delete(dst.toPath());
+        }
+    }
+
+    /**
+     * Replaces the destination with a hard link to the source. The two names
+     * then share content, permissions and last modified time, so changing the
+     * workspace file changes the source file as well.
+     *
+     * @param src
+     *            Source File
+     * @param dst
+     *            Destination File, replaced if it exists
+     * @return false if the file system cannot link the two, e.g. because they
+     *         are on different devices, the file system has no hard links or
+     *         the kernel does not allow linking a file of another user; the
+     *         destination is deleted then
+     * @throws IOException
+     *             when the destination cannot be replaced
+     */
+    static boolean link(File src, File dst) throws IOException {
+        Path target = dst.toPath();
+        try {
+            try {
+                Files.createLink(target, src.toPath());
+            } catch (FileAlreadyExistsException e) {
+                Files.delete(target);
+                Files.createLink(target, src.toPath());
+            } catch (NoSuchFileException e) {
+                Path parent = target.getParent();
+                if (parent == null) {
+                    throw e;
+                }
+                Files.createDirectories(parent);
+                Files.createLink(target, src.toPath());
+            }
+            return true;
+        } catch (FileSystemException | UnsupportedOperationException e) {
+            return false;
+        }
+    }
+}
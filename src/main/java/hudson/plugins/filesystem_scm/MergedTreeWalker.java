@@ -0,0 +1,520 @@
+package hudson.plugins.filesystem_scm;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.DosFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.CheckForNull;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+
+import hudson.plugins.filesystem_scm.FolderDiff.Entry.Type;
+
+/**
+ * Walks the source folder and the workspace folder together, in one pass.
+ *
+ * <p>
+ * Both folders are listed directory by directory, each listing is sorted by
+ * name and the two listings are merged, so every directory on either side is
+ * read exactly once. For every file the walker decides whether it is
+ * {@link Type#NEW}, {@link Type#MODIFIED} or {@link Type#DELETED} using the same
+ * rules {@link FolderDiff} always used, and reports it to a {@link Visitor}.
+ * </p>
+ *
+ * <p>
+ * With a parallelism greater than one, the directories are scanned by a
+ * {@link ForkJoinPool}, one task per directory. This helps on network file
+ * systems where every directory read and {@code stat} is a round-trip. The
+ * visitor is still called from the calling thread and in the same sorted order
+ * as the sequential walk, while the rest of the tree is being scanned.
+ * </p>
+ *
+ * <p>
+ * Every entry is {@code stat}-ed once, when its attributes are read, and
+ * everything the walker and the filters decide is based on these attributes
+ * and the name. On Windows the attributes are read as {@link DosFileAttributes},
+ * which come with the hidden flag at no extra cost. The directories listed and
+ * the attributes read are counted, see {@link #getDirectoriesListed()} and
+ * {@link #getAttributesRead()}.
+ * </p>
+ */
+final class MergedTreeWalker {
+
+    /**
+     * Receives the entries found by the walker, in sorted depth-first order.
+     */
+    interface Visitor {
+        /**
+         * @param type
+         *            the kind of change
+         * @param relativeName
+         *            the name relative to the source and workspace roots
+         * @param srcFile
+         *            the source file, {@code null} for {@link Type#DELETED}
+         * @param dstFile
+         *            the workspace file
+         * @return false to stop the walk
+         * @throws IOException
+         *             if the visitor fails to process the entry
+         */
+        boolean visit(Type type, String relativeName, @CheckForNull File srcFile, File dstFile) throws IOException;
+    }
+
+    /**
+     * Is told about every visible source file, changed or not. With a parallelism
+     * greater than one it is called concurrently from the scanning threads.
+     */
+    interface SourceListener {
+        /**
+         * @param relativeName
+         *            the name relative to the source root
+         * @param srcFile
+         *            the source file
+         * @param attrs
+         *            the attributes of the source file
+         * @return false to stop the walk
+         * @throws IOException
+         *             if the listener fails to process the file
+         */
+        boolean source(String relativeName, File srcFile, BasicFileAttributes attrs) throws IOException;
+    }
+
+    /**
+     * Decides whether a source file differs from its workspace counterpart by
+     * content, instead of by last modified time. Called concurrently with a
+     * parallelism greater than one.
+     */
+    interface ContentComparator {
+        /**
+         * @return true if the workspace file has to be replaced
+         * @throws IOException
+         *             if a file cannot be read
+         */
+        boolean isModified(String relativeName, File srcFile, BasicFileAttributes srcAttrs, File dstFile,
+                BasicFileAttributes dstAttrs) throws IOException;
+    }
+
+    private static final Class<? extends BasicFileAttributes> ATTRIBUTES = File.separatorChar == '\\'
+            ? DosFileAttributes.class
+            : BasicFileAttributes.class;
+
+    private final File src;
+    @CheckForNull
+    private final File dst;
+    private final boolean ignoreHidden;
+    @CheckForNull
+    private final WildcardMatcher matcher;
+    private final LongAdder directoriesListed = new LongAdder();
+    private final LongAdder attributesRead = new LongAdder();
+
+    private long time;
+    private boolean reportNewOrModified = true;
+    private boolean reportDeleted = true;
+    @CheckForNull
+    private Set<String> allowDeleteList;
+    private int parallelism = 1;
+    @CheckForNull
+    private SourceListener sourceListener;
+    @CheckForNull
+    private ContentComparator contentComparator;
+
+    /**
+     * @param src
+     *            the source folder, a missing folder is treated as empty
+     * @param dst
+     *            the workspace folder, a missing folder is treated as empty,
+     *            {@code null} if only the source folder is of interest
+     * @param ignoreHidden
+     *            if true, hidden source files and directories are treated as if
+     *            they did not exist
+     * @param matcher
+     *            decides which visible source files are of interest, and which
+     *            source directories need not be walked, {@code null} for all of
+     *            them
+     */
+    MergedTreeWalker(File src, @CheckForNull File dst, boolean ignoreHidden, @CheckForNull WildcardMatcher matcher) {
+        this.src = src;
+        this.dst = dst;
+        this.ignoreHidden = ignoreHidden;
+        this.matcher = matcher;
+    }
+
+    /**
+     * @param time
+     *            source files modified after this time are reported as modified
+     *            even if the workspace copy looks up to date
+     */
+    void setTime(long time) {
+        this.time = time;
+    }
+
+    void setReportNewOrModified(boolean reportNewOrModified) {
+        this.reportNewOrModified = reportNewOrModified;
+    }
+
+    void setReportDeleted(boolean reportDeleted) {
+        this.reportDeleted = reportDeleted;
+    }
+
+    /**
+     * @param allowDeleteList
+     *            only workspace files in this list are reported as deleted,
+     *            {@code null} allows every file
+     */
+    void setAllowDeleteList(@CheckForNull Set<String> allowDeleteList) {
+        this.allowDeleteList = allowDeleteList;
+    }
+
+    /**
+     * @param parallelism
+     *            the number of threads scanning directories, 1 or less walks the
+     *            trees on the calling thread
+     */
+    void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    void setSourceListener(@CheckForNull SourceListener sourceListener) {
+        this.sourceListener = sourceListener;
+    }
+
+    void setContentComparator(@CheckForNull ContentComparator contentComparator) {
+        this.contentComparator = contentComparator;
+    }
+
+    /**
+     * @return the number of directories listed so far, one {@code opendir} each
+     */
+    long getDirectoriesListed() {
+        return directoriesListed.sum();
+    }
+
+    /**
+     * @return the number of times file attributes were read so far, one
+     *         {@code stat} each
+     */
+    long getAttributesRead() {
+        return attributesRead.sum();
+    }
+
+    /**
+     * Walks both trees and reports every change to the visitor.
+     *
+     * @param visitor
+     *            receives the entries
+     * @throws IOException
+     *             if a directory cannot be read or the visitor fails
+     */
+    void walk(final Visitor visitor) throws IOException {
+        File srcDir = isDirectory(src) ? src : null;
+        File dstDir = isDirectory(dst) ? dst : null;
+        if (parallelism <= 1) {
+            walk("", srcDir, dstDir, new Sink() {
+                @Override
+                public boolean entry(Type type, String relativeName, File srcFile, File dstFile) throws IOException {
+                    return visitor.visit(type, relativeName, srcFile, dstFile);
+                }
+
+                @Override
+                public boolean directory(String relativeDir, File srcDir, File dstDir) throws IOException {
+                    return walk(relativeDir, srcDir, dstDir, this);
+                }
+            });
+            return;
+        }
+
+        AtomicBoolean stopped = new AtomicBoolean();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            ScanTask root = new ScanTask("", srcDir, dstDir, stopped);
+            pool.execute(root);
+            replay(root, visitor, stopped);
+        } finally {
+            stopped.set(true);
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Hands the scanned entries to the visitor in tree order, waiting for each
+     * directory scan as it is reached.
+     */
+    private static boolean replay(ScanTask task, Visitor visitor, AtomicBoolean stopped) throws IOException {
+        List<Object> items;
+        try {
+            items = task.join();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        for (Object item : items) {
+            if (item instanceof ScanTask) {
+                if (!replay((ScanTask) item, visitor, stopped)) {
+                    return false;
+                }
+            } else {
+                Change change = (Change) item;
+                if (!visitor.visit(change.type, change.relativeName, change.srcFile, change.dstFile)) {
+                    stopped.set(true);
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private boolean walk(String relativeDir, @CheckForNull File srcDir, @CheckForNull File dstDir, Sink sink)
+            throws IOException {
+        List<String> srcNames = list(srcDir);
+        List<String> dstNames = list(dstDir);
+        int i = 0;
+        int j = 0;
+        while (i < srcNames.size() || j < dstNames.size()) {
+            String name;
+            File srcFile = null;
+            File dstFile = null;
+            int cmp;
+            if (i >= srcNames.size()) {
+                cmp = 1;
+            } else if (j >= dstNames.size()) {
+                cmp = -1;
+            } else {
+                cmp = srcNames.get(i).compareTo(dstNames.get(j));
+            }
+            if (cmp <= 0) {
+                name = srcNames.get(i++);
+                srcFile = new File(srcDir, name);
+            } else {
+                name = dstNames.get(j);
+            }
+            if (cmp >= 0) {
+                dstFile = new File(dstDir, name);
+                j++;
+            }
+            String relativeName = relativeDir + name;
+            if (!visit(relativeName, srcFile, dstFile, sink)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean visit(String relativeName, @CheckForNull File srcFile, @CheckForNull File dstFile, Sink sink)
+            throws IOException {
+        BasicFileAttributes srcAttrs = readAttributes(srcFile);
+        BasicFileAttributes dstAttrs = readAttributes(dstFile);
+        boolean srcIsDir = srcAttrs != null && srcAttrs.isDirectory();
+        boolean dstIsDir = dstAttrs != null && dstAttrs.isDirectory();
+
+        // hidden or filtered source entries are treated as if they did not exist
+        if (srcAttrs != null && !accept(relativeName, srcFile, srcAttrs)) {
+            srcAttrs = null;
+            srcIsDir = false;
+        }
+        if (srcAttrs != null && !srcIsDir && sourceListener != null
+                && !sourceListener.source(relativeName, srcFile, srcAttrs)) {
+            return false;
+        }
+
+        if (dstAttrs != null && !dstIsDir && (srcAttrs == null || srcIsDir)) {
+            // the workspace file has no visible source counterpart
+            if (reportDeleted && isDeleteAllowed(relativeName)
+                    && !sink.entry(Type.DELETED, relativeName, null, dstFile)) {
+                return false;
+            }
+            dstAttrs = null;
+        }
+        if (dstIsDir && !srcIsDir) {
+            // the whole workspace directory has no visible source counterpart
+            if (reportDeleted && !sink.directory(relativeName + File.separator, null, dstFile)) {
+                return false;
+            }
+        }
+
+        if (srcIsDir) {
+            return sink.directory(relativeName + File.separator, srcFile, dstIsDir ? dstFile : null);
+        }
+        if (srcAttrs != null && reportNewOrModified) {
+            File target = dstFile != null ? dstFile : new File(dst, relativeName);
+            if (dstAttrs == null) {
+                return sink.entry(Type.NEW, relativeName, srcFile, target);
+            }
+            if (contentComparator != null) {
+                if (contentComparator.isModified(relativeName, srcFile, srcAttrs, target, dstAttrs)) {
+                    return sink.entry(Type.MODIFIED, relativeName, srcFile, target);
+                }
+                return true;
+            }
+            long lastModified = srcAttrs.lastModifiedTime().toMillis();
+            if (lastModified > time || lastModified > dstAttrs.lastModifiedTime().toMillis()) {
+                return sink.entry(Type.MODIFIED, relativeName, srcFile, target);
+            }
+        }
+        return true;
+    }
+
+    private boolean accept(String relativeName, File srcFile, BasicFileAttributes attrs) {
+        if (ignoreHidden && isHidden(srcFile, attrs)) {
+            return false;
+        }
+        if (attrs.isDirectory()) {
+            // a directory whose files are all excluded is not walked at all
+            return matcher == null || !matcher.excludesAllBelow(relativeName);
+        }
+        return attrs.isRegularFile() && (matcher == null || matcher.accept(relativeName, srcFile));
+    }
+
+    /**
+     * Same as {@link File#isHidden()}, without asking the file system again.
+     */
+    private static boolean isHidden(File file, BasicFileAttributes attrs) {
+        if (attrs instanceof DosFileAttributes) {
+            return ((DosFileAttributes) attrs).isHidden();
+        }
+        return file.getName().startsWith(".");
+    }
+
+    private boolean isDeleteAllowed(String relativeName) {
+        return null == allowDeleteList || allowDeleteList.contains(relativeName);
+    }
+
+    /**
+     * Lists the names in the given directory, sorted.
+     */
+    private List<String> list(@CheckForNull File dir) throws IOException {
+        if (dir == null) {
+            return Collections.emptyList();
+        }
+        directoriesListed.increment();
+        List<String> names = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir.toPath())) {
+            for (Path path : stream) {
+                names.add(path.getFileName().toString());
+            }
+        }
+        Collections.sort(names);
+        return names;
+    }
+
+    /**
+     * Reads the attributes of the given file, following symbolic links. A dangling
+     * link is reported with its own attributes so that it can still be deleted,
+     * a file that disappeared since the directory was listed is reported as
+     * {@code null}.
+     */
+    @CheckForNull
+    private BasicFileAttributes readAttributes(@CheckForNull File file) throws IOException {
+        if (file == null) {
+            return null;
+        }
+        Path path = file.toPath();
+        attributesRead.increment();
+        try {
+            return Files.readAttributes(path, ATTRIBUTES);
+        } catch (NoSuchFileException e) {
+            attributesRead.increment();
+            try {
+                BasicFileAttributes link = Files.readAttributes(path, ATTRIBUTES, LinkOption.NOFOLLOW_LINKS);
+                if (link.isSymbolicLink()) {
+                    return link;
+                }
+            } catch (NoSuchFileException removed) {
+                // removed while we were walking
+            }
+            return null;
+        }
+    }
+
+    private boolean isDirectory(@CheckForNull File dir) throws IOException {
+        BasicFileAttributes attrs = readAttributes(dir);
+        return attrs != null && attrs.isDirectory();
+    }
+
+    /**
+     * Receives the changes and the subdirectories of one directory, in order.
+     */
+    private interface Sink {
+        boolean entry(Type type, String relativeName, @CheckForNull File srcFile, File dstFile) throws IOException;
+
+        boolean directory(String relativeDir, @CheckForNull File srcDir, @CheckForNull File dstDir) throws IOException;
+    }
+
+    private static final class Change {
+        private final Type type;
+        private final String relativeName;
+        private final File srcFile;
+        private final File dstFile;
+
+        Change(Type type, String relativeName, File srcFile, File dstFile) {
+            this.type = type;
+            this.relativeName = relativeName;
+            this.srcFile = srcFile;
+            this.dstFile = dstFile;
+        }
+    }
+
+    /**
+     * Scans one directory and forks a task for each subdirectory. The result holds
+     * the changes and the subdirectory tasks in tree order.
+     */
+    @SuppressFBWarnings(value = {"SE_BAD_FIELD", "SE_BAD_FIELD_INNER_CLASS"}, justification = "Never serialized")
+    private final class ScanTask extends RecursiveTask<List<Object>> implements Sink {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String relativeDir;
+        private final File srcDir;
+        private final File dstDir;
+        private final AtomicBoolean stopped;
+        private final List<Object> items = new ArrayList<>();
+
+        ScanTask(String relativeDir, @CheckForNull File srcDir, @CheckForNull File dstDir, AtomicBoolean stopped) {
+            this.relativeDir = relativeDir;
+            this.srcDir = srcDir;
+            this.dstDir = dstDir;
+            this.stopped = stopped;
+        }
+
+        @Override
+        protected List<Object> compute() {
+            if (!stopped.get()) {
+                try {
+                    if (!walk(relativeDir, srcDir, dstDir, this)) {
+                        stopped.set(true);
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return items;
+        }
+
+        @Override
+        public boolean entry(Type type, String relativeName, File srcFile, File dstFile) {
+            items.add(new Change(type, relativeName, srcFile, dstFile));
+            return !stopped.get();
+        }
+
+        @Override
+        public boolean directory(String relativeDir, File srcDir, File dstDir) {
+            ScanTask task = new ScanTask(relativeDir, srcDir, dstDir, stopped);
+            task.fork();
+            items.add(task);
+            return !stopped.get();
+        }
+    }
+}
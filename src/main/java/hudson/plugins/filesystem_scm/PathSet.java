@@ -0,0 +1,320 @@
+package hudson.plugins.filesystem_scm;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.AbstractSet;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A set of relative paths, stored as a tree of path segments.
+ *
+ * <p>
+ * A {@code HashSet<String>} of a workspace holds every directory prefix again
+ * in every path below it, plus a hash map node per path. Here each directory
+ * name is stored once, and the names in a directory are kept in a sorted
+ * array, so a path costs little more than its last segment.
+ * {@link #contains(Object)} walks the tree comparing segments in place,
+ * without creating any strings.
+ * </p>
+ *
+ * <p>
+ * Paths are split at the separator of the machine the set was created on,
+ * which is kept when the set is sent to another machine. Removing a path only
+ * clears its flag; the tree is compacted when the set is serialized. The
+ * serialized form is the sorted list of paths, front-coded.
+ * </p>
+ */
+public final class PathSet extends AbstractSet<String> implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final String[] NO_NAMES = new String[0];
+    private static final boolean[] NO_MEMBERS = new boolean[0];
+
+    private final char separator;
+    private transient Node root;
+    private transient int size;
+
+    public PathSet() {
+        this(File.separatorChar);
+    }
+
+    /**
+     * @param separator
+     *            the separator of the path segments
+     */
+    public PathSet(char separator) {
+        this.separator = separator;
+        this.root = new Node();
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if (!(o instanceof String)) {
+            return false;
+        }
+        String path = (String) o;
+        Node node = root;
+        int start = 0;
+        while (true) {
+            int end = path.indexOf(separator, start);
+            if (end < 0) {
+                int i = node.find(path, start, path.length());
+                return i >= 0 && node.member[i];
+            }
+            int i = node.find(path, start, end);
+            if (i < 0 || node.children == null || node.children[i] == null) {
+                return false;
+            }
+            node = node.children[i];
+            start = end + 1;
+        }
+    }
+
+    @Override
+    public boolean add(String path) {
+        Node node = root;
+        int start = 0;
+        while (true) {
+            int end = path.indexOf(separator, start);
+            if (end < 0) {
+                int i = node.insert(path, start, path.length());
+                if (node.member[i]) {
+                    return false;
+                }
+                node.member[i] = true;
+                size++;
+                return true;
+            }
+            int i = node.insert(path, start, end);
+            node = node.child(i);
+            start = end + 1;
+        }
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        if (!(o instanceof String)) {
+            return false;
+        }
+        String path = (String) o;
+        Node node = root;
+        int start = 0;
+        while (true) {
+            int end = path.indexOf(separator, start);
+            if (end < 0) {
+                int i = node.find(path, start, path.length());
+                if (i < 0 || !node.member[i]) {
+                    return false;
+                }
+                node.member[i] = false;
+                size--;
+                return true;
+            }
+            int i = node.find(path, start, end);
+            if (i < 0 || node.children == null || node.children[i] == null) {
+                return false;
+            }
+            node = node.children[i];
+            start = end + 1;
+        }
+    }
+
+    @Override
+    public void clear() {
+        root = new Node();
+        size = 0;
+    }
+
+    /**
+     * Iterates in tree order: the names of a directory sorted, each followed by
+     * the paths below it.
+     */
+    @Override
+    public Iterator<String> iterator() {
+        return new Iterator<String>() {
+            private final Deque<Cursor> stack = new ArrayDeque<>();
+            private String next;
+            private String last;
+
+            {
+                stack.push(new Cursor(root, ""));
+                advance();
+            }
+
+            private void advance() {
+                next = null;
+                while (!stack.isEmpty()) {
+                    Cursor cursor = stack.peek();
+                    if (cursor.index >= cursor.node.size) {
+                        stack.pop();
+                        continue;
+                    }
+                    int i = cursor.index++;
+                    String path = cursor.prefix + cursor.node.names[i];
+                    if (cursor.node.children != null && cursor.node.children[i] != null) {
+                        stack.push(new Cursor(cursor.node.children[i], path + separator));
+                    }
+                    if (cursor.node.member[i]) {
+                        next = path;
+                        return;
+                    }
+                }
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public String next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                last = next;
+                advance();
+                return last;
+            }
+
+            @Override
+            public void remove() {
+                if (last == null) {
+                    throw new IllegalStateException();
+                }
+                // only clears a flag, the tree keeps its shape while iterating
+                PathSet.this.remove(last);
+                last = null;
+            }
+        };
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeInt(size);
+        FrontCoding.Writer writer = new FrontCoding.Writer(out);
+        for (String path : this) {
+            writer.write(path);
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        root = new Node();
+        int count = in.readInt();
+        FrontCoding.Reader reader = new FrontCoding.Reader(in);
+        for (int i = 0; i < count; i++) {
+            add(reader.read());
+        }
+    }
+
+    /**
+     * Compares a name with {@code path[from, to)} like {@link String#compareTo}.
+     */
+    private static int compare(String name, String path, int from, int to) {
+        int length = to - from;
+        int max = Math.min(name.length(), length);
+        for (int i = 0; i < max; i++) {
+            int diff = name.charAt(i) - path.charAt(from + i);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return name.length() - length;
+    }
+
+    private static final class Cursor {
+        private final Node node;
+        private final String prefix;
+        private int index;
+
+        Cursor(Node node, String prefix) {
+            this.node = node;
+            this.prefix = prefix;
+        }
+    }
+
+    /**
+     * One directory: the sorted names in it, whether each name is in the set,
+     * and the directory below each name, if any.
+     */
+    private static final class Node {
+        private String[] names = NO_NAMES;
+        private boolean[] member = NO_MEMBERS;
+        private Node[] children;
+        private int size;
+
+        /**
+         * @return the index of the name, or {@code -(insertion point) - 1}
+         */
+        int find(String path, int from, int to) {
+            int low = 0;
+            int high = size - 1;
+            // paths are mostly added in sorted order
+            if (high >= 0 && compare(names[high], path, from, to) < 0) {
+                return -size - 1;
+            }
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int cmp = compare(names[mid], path, from, to);
+                if (cmp < 0) {
+                    low = mid + 1;
+                } else if (cmp > 0) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -low - 1;
+        }
+
+        int insert(String path, int from, int to) {
+            int i = find(path, from, to);
+            if (i >= 0) {
+                return i;
+            }
+            i = -i - 1;
+            if (size == names.length) {
+                // most directories hold a few names only
+                int capacity = size + Math.max(1, size >> 1);
+                names = Arrays.copyOf(names, capacity);
+                member = Arrays.copyOf(member, capacity);
+                if (children != null) {
+                    children = Arrays.copyOf(children, capacity);
+                }
+            }
+            System.arraycopy(names, i, names, i + 1, size - i);
+            System.arraycopy(member, i, member, i + 1, size - i);
+            if (children != null) {
+                System.arraycopy(children, i, children, i + 1, size - i);
+                children[i] = null;
+            }
+            names[i] = path.substring(from, to);
+            member[i] = false;
+            size++;
+            return i;
+        }
+
+        Node child(int i) {
+            if (children == null) {
+                children = new Node[names.length];
+            }
+            if (children[i] == null) {
+                children[i] = new Node();
+            }
+            return children[i];
+        }
+    }
+}
@@ -1,22 +1,46 @@
 package hudson.plugins.filesystem_scm;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.List;
 
+import javax.annotation.CheckForNull;
+
 import hudson.FilePath;
+import hudson.model.TaskListener;
 import hudson.os.PosixException;
+import hudson.remoting.RemoteOutputStream;
 import hudson.remoting.VirtualChannel;
+import hudson.slaves.WorkspaceList;
 import hudson.tools.JDKInstaller.Platform;
 
 public class RemoteFolderDiff<T> extends FolderDiff<T> {
 
     private static final long serialVersionUID = 5823948572938475938L;
+
+    /**
+     * The most time log lines are held back before they are sent to the build
+     * log, unless no further line is logged.
+     */
+    static final long LOG_FLUSH_INTERVAL_MS = 1000;
+    static final int LOG_BUFFER_SIZE = 16 * 1024;
+
     protected StringBuffer buf;
     protected long lastBuildTime;
     protected long lastSuccessfulBuildTime;
     protected boolean verboseLogging = true;
+    protected boolean hardLink;
+    protected boolean agentAllowDeleteList;
+    private transient volatile boolean linkFailureLogged;
+    protected boolean useManifest;
+    @CheckForNull
+    protected RemoteOutputStream logOutput;
+    private transient PrintStream logStream;
+    private transient long logFlushed;
 
     public RemoteFolderDiff() {
         buf = new StringBuffer();
@@ -42,14 +66,100 @@ public class RemoteFolderDiff<T> extends FolderDiff<T> {
         this.lastSuccessfulBuildTime = lastSuccessfulBuildTime;
     }
 
+    /**
+     * @param hardLink
+     *            if true, workspace files are hard links to the source files
+     *            where possible, and copies otherwise
+     */
+    public void setHardLink(boolean hardLink) {
+        this.hardLink = hardLink;
+    }
+
+    /**
+     * @param agentAllowDeleteList
+     *            if true, the {@link AllowDeleteList} is kept in the {@code @tmp}
+     *            folder next to the workspace and maintained by {@link CheckOut},
+     *            instead of being passed in by {@link #setAllowDeleteList}
+     */
+    public void setAgentAllowDeleteList(boolean agentAllowDeleteList) {
+        this.agentAllowDeleteList = agentAllowDeleteList;
+    }
+
+    /**
+     * @param useManifest
+     *            if true, the {@link CheckoutManifest} of the last checkout,
+     *            kept in the {@code @tmp} folder next to the workspace, is
+     *            used: {@link PollChange} compares the source folder with it
+     *            instead of with the workspace, and {@link CheckOut} only
+     *            writes the files changed since, unless the workspace is not
+     *            known to still hold the files of that checkout
+     */
+    public void setUseManifest(boolean useManifest) {
+        this.useManifest = useManifest;
+    }
+
+    /**
+     * @param listener
+     *            if set, the log is written to it while the callable runs,
+     *            instead of being collected for {@link #getLog()}. Lines are
+     *            sent in batches of up to {@link #LOG_BUFFER_SIZE} bytes, at
+     *            least every {@link #LOG_FLUSH_INTERVAL_MS} while lines keep
+     *            coming, and when the callable is done.
+     */
+    public void setListener(@CheckForNull TaskListener listener) {
+        this.logOutput = listener == null ? null : new RemoteOutputStream(listener.getLogger());
+    }
+
     @Override
     protected void log(String msg) {
-        if (verboseLogging)
+        if (!verboseLogging)
+            return;
+        if (logOutput == null) {
             buf.append(msg).append("\n");
+            return;
+        }
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            if (logStream == null) {
+                logStream = new PrintStream(new BufferedOutputStream(logOutput, LOG_BUFFER_SIZE), false,
+                        StandardCharsets.UTF_8);
+                logFlushed = now;
+            }
+            logStream.println(msg);
+            if (now - logFlushed >= LOG_FLUSH_INTERVAL_MS) {
+                logStream.flush();
+                logFlushed = now;
+            }
+        }
+    }
+
+    /**
+     * Sends the log lines still held back.
+     */
+    protected synchronized void flushLog() {
+        if (logStream != null) {
+            logStream.flush();
+        }
     }
 
     @Override
     protected void copyFile(File src, File dst) throws IOException {
+        if (hardLink) {
+            if (LocalFileCopy.link(src, dst)) {
+                return;
+            }
+            if (!linkFailureLogged) {
+                linkFailureLogged = true;
+                log("Cannot hard link " + src.getAbsolutePath() + ", copying instead");
+            }
+        }
+        // source and workspace are both local to the node this callable runs on
+        if (LocalFileCopy.isSupported()) {
+            LocalFileCopy.copy(src, dst);
+            return;
+        }
+        // a hard link left by a checkout with hardLink would be written through
+        LocalFileCopy.unlink(src, dst);
         FilePath srcpath = new FilePath(src);
         FilePath dstpath = new FilePath(dst);
         try {
@@ -84,26 +194,122 @@ public class RemoteFolderDiff<T> extends FolderDiff<T> {
         return isUnix;
     }
 
+    /**
+     * The digests are kept in the {@code @tmp} folder next to the workspace.
+     */
+    @Override
+    protected File getDigestCacheFile() {
+        if (null == getDstPath()) {
+            return null;
+        }
+        FilePath tempDir = WorkspaceList.tempDir(new FilePath(new File(getDstPath())));
+        return tempDir == null ? null : DigestCache.getFile(new File(tempDir.getRemote()));
+    }
+
     public String getLog() {
         return buf.toString();
     }
 
+    /**
+     * Loads the allow delete list kept next to the workspace. Without one, all
+     * files in the workspace are assumed to be copied by us, like
+     * {@link FSSCM} does with the list kept on the controller.
+     */
+    protected AllowDeleteList loadAgentAllowDeleteList(File workspace) throws IOException {
+        FilePath tempDir = WorkspaceList.tempDir(new FilePath(workspace));
+        if (tempDir == null) {
+            throw new IOException("No folder to keep the allow delete list of " + workspace + " in");
+        }
+        File dir = new File(tempDir.getRemote());
+        Files.createDirectories(dir.toPath());
+        AllowDeleteList allowDeleteList = new AllowDeleteList(dir);
+        if (allowDeleteList.fileExists()) {
+            allowDeleteList.load();
+        } else if (workspace.isDirectory()) {
+            allowDeleteList.setList(new RemoteListDir().invoke(workspace, null));
+        }
+        return allowDeleteList;
+    }
+
+    /**
+     * @return the manifest of the last checkout kept in the given folder,
+     *         {@code null} if there is none that can be used with the current
+     *         settings
+     */
+    @CheckForNull
+    protected CheckoutManifest loadManifest(@CheckForNull File tempDir) {
+        CheckoutManifest manifest;
+        try {
+            manifest = tempDir == null ? null : CheckoutManifest.load(tempDir);
+        } catch (IOException e) {
+            log("Ignoring unreadable checkout manifest: " + e.getMessage());
+            return null;
+        }
+        if (manifest == null) {
+            log("No checkout manifest next to the workspace");
+            return null;
+        }
+        if (!manifest.getConfigKey().equals(getConfigKey())) {
+            log("Checkout manifest does not match the filter settings");
+            return null;
+        }
+        return manifest;
+    }
+
+    /**
+     * @return the {@code @tmp} folder of the workspace, {@code null} if it has
+     *         none
+     */
+    @CheckForNull
+    protected static File getTempDir(File workspace) {
+        FilePath tempDir = WorkspaceList.tempDir(new FilePath(workspace));
+        return tempDir == null ? null : new File(tempDir.getRemote());
+    }
+
     public static class PollChange extends RemoteFolderDiff<Boolean> {
 
         private static final long serialVersionUID = 1L;
 
         @Override
         public Boolean invoke(File workspace, VirtualChannel channel) throws IOException {
+            try {
+                return pollChange(workspace);
+            } finally {
+                flushLog();
+            }
+        }
+
+        private boolean pollChange(File workspace) throws IOException {
             setDstPath(workspace.getAbsolutePath());
-            List<FolderDiff.Entry> newFiles = getNewOrModifiedFiles(lastBuildTime, true);
-            if (newFiles.size() > 0) {
-                return Boolean.TRUE;
+            if (useManifest) {
+                CheckoutManifest recorded = loadManifest(getTempDir(workspace));
+                // without one to compare with, the next checkout records one
+                return recorded == null || isChangedSince(recorded, -1 != lastSuccessfulBuildTime);
+            }
+            if (agentAllowDeleteList) {
+                setAllowDeleteList(loadAgentAllowDeleteList(workspace).getList());
             }
+            if (hardLink) {
+                setLinkedBaseline(loadManifest(getTempDir(workspace)));
+            }
+            List<FolderDiff.Entry> changes;
             if (-1 == lastSuccessfulBuildTime) {
-                return Boolean.FALSE;
+                changes = getNewOrModifiedFiles(lastBuildTime, true);
+            } else {
+                changes = getChanges(lastBuildTime, true);
             }
-            List<FolderDiff.Entry> delFiles = getFiles2Delete(true);
-            return delFiles.size() > 0;
+            return changes.size() > 0;
+        }
+    }
+
+    public static class Fingerprint extends RemoteFolderDiff<String> {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public String invoke(File workspace, VirtualChannel channel) throws IOException {
+            setDstPath(workspace.getAbsolutePath());
+            return getFingerprint();
         }
     }
 
@@ -113,13 +319,64 @@ public class RemoteFolderDiff<T> extends FolderDiff<T> {
 
         @Override
         public List<FolderDiff.Entry> invoke(File workspace, VirtualChannel channel) throws IOException {
+            try {
+                return checkOut(workspace);
+            } finally {
+                flushLog();
+            }
+        }
+
+        private List<FolderDiff.Entry> checkOut(File workspace) throws IOException {
             setDstPath(workspace.getAbsolutePath());
-            List<FolderDiff.Entry> newFiles = getNewOrModifiedFiles(lastBuildTime, false);
-            List<FolderDiff.Entry> delFiles = getFiles2Delete(false);
-            List<FolderDiff.Entry> files = new ArrayList<FolderDiff.Entry>();
-            files.addAll(newFiles);
-            files.addAll(delFiles);
-            return files;
+            AllowDeleteList allowDeleteList = null;
+            if (agentAllowDeleteList) {
+                allowDeleteList = loadAgentAllowDeleteList(workspace);
+                setAllowDeleteList(allowDeleteList.getList());
+            }
+            File manifestDir = getTempDir(workspace);
+            CheckoutManifest last = useManifest || hardLink ? loadManifest(manifestDir) : null;
+            CheckoutManifest previous = useManifest ? getPreviousManifest(workspace, manifestDir, last) : null;
+            // with content compare, hard links are compared with the last checkout
+            setLinkedBaseline(last);
+            if (manifestDir != null) {
+                CheckoutManifest.delete(manifestDir);
+            }
+            CheckoutManifest current = createManifest();
+            List<FolderDiff.Entry> list;
+            if (previous != null) {
+                log("Incremental checkout, only the files changed since the last checkout are written");
+                list = getChangesSince(previous, current);
+            } else {
+                list = getChanges(lastBuildTime, false, current);
+            }
+            if (manifestDir != null) {
+                current.save(manifestDir);
+                current.writeMarker(workspace, manifestDir);
+            }
+            if (allowDeleteList != null) {
+                allowDeleteList.update(list);
+                allowDeleteList.save();
+            }
+            return new EntryList(list, current.getFingerprint());
+        }
+
+        /**
+         * @return the manifest of the last checkout if the workspace still
+         *         holds its files, otherwise {@code null} to compare the
+         *         source folder with the workspace
+         */
+        @CheckForNull
+        private CheckoutManifest getPreviousManifest(File workspace, @CheckForNull File manifestDir,
+                @CheckForNull CheckoutManifest previous) {
+            if (previous == null) {
+                log("Verifying the workspace");
+                return null;
+            }
+            if (!previous.isMarked(workspace, manifestDir)) {
+                log("Workspace was wiped or last checked out elsewhere, verifying the workspace");
+                return null;
+            }
+            return previous;
         }
     }
 }
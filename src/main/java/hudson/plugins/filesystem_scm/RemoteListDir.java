@@ -1,28 +1,184 @@
 package hudson.plugins.filesystem_scm;
 
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
 
-import org.apache.commons.io.FileUtils;
-
+import hudson.FilePath;
+import hudson.remoting.Pipe;
 import hudson.remoting.VirtualChannel;
 import jenkins.MasterToSlaveFileCallable;
 
+/**
+ * Lists the relative names of all files in the workspace, into a {@link PathSet}.
+ * 
+ * <p>
+ * To list a workspace on an agent, use {@link #list(FilePath, Consumer)}: the names are sent
+ * back through a pipe while the agent walks the workspace, front-coded and compressed, and are
+ * handed to the consumer as they arrive. Neither side builds the listing just to send it.
+ * </p>
+ */
 public class RemoteListDir extends MasterToSlaveFileCallable< Set<String> > { 
 	
 	private static final long serialVersionUID = 1452212500874165127L;
 
+	/**
+	 * The size of the chunks sent through the pipe.
+	 */
+	static final int CHUNK_SIZE = 64 * 1024;
+
+	/**
+	 * How long to wait for the agent to report why the names stopped coming.
+	 */
+	static final long FAILURE_WAIT_MS = 10 * 1000;
+
 	public RemoteListDir() {
 	}
 	
 	public Set<String> invoke(File workspace, VirtualChannel channel) throws IOException {
-		Collection<File> list = FileUtils.listFiles(workspace, null, true);
-		Set<String> set = new HashSet<String>();
-		for(File file : list) {
-			String relativePath = FolderDiff.getRelativeName(file.getAbsolutePath(), workspace.getAbsolutePath());
-			set.add(relativePath);
-		}
+		final Set<String> set = new PathSet();
+		walk(workspace, name -> set.add(name));
 		return set;
 	}
+
+	/**
+	 * Lists the files in a workspace, on the machine the workspace is on.
+	 * 
+	 * @param workspace the workspace
+	 * @param consumer receives the name of each file relative to the workspace, in no
+	 *            particular order
+	 * @throws IOException if the workspace cannot be listed
+	 * @throws InterruptedException if interrupted
+	 */
+	public static void list(FilePath workspace, Consumer<String> consumer) throws IOException, InterruptedException {
+		if (!workspace.isRemote()) {
+			walk(new File(workspace.getRemote()), name -> consumer.accept(name));
+			return;
+		}
+		Pipe pipe = Pipe.createRemoteToLocal();
+		Future<Void> future = workspace.actAsync(new Streaming(pipe));
+		try (InputStream in = pipe.getIn()) {
+			receive(in, future, workspace.getRemote(), consumer);
+		}
+	}
+
+	/**
+	 * Reads the names sent by the agent, then waits for it to complete. If reading fails,
+	 * the agent most likely failed and closed the pipe: its failure is reported then,
+	 * rather than the cut short stream, if it arrives within {@link #FAILURE_WAIT_MS}.
+	 */
+	static void receive(InputStream in, Future<Void> future, String workspace, Consumer<String> consumer)
+			throws IOException, InterruptedException {
+		try {
+			read(in, consumer);
+		} catch (IOException e) {
+			try {
+				future.get(FAILURE_WAIT_MS, TimeUnit.MILLISECONDS);
+			} catch (ExecutionException failure) {
+				IOException reported = new IOException("Failed to list " + workspace, failure.getCause());
+				reported.addSuppressed(e);
+				throw reported;
+			} catch (TimeoutException timeout) {
+				// still running, the stream itself broke
+			} finally {
+				future.cancel(true);
+			}
+			throw e;
+		}
+		try {
+			future.get();
+		} catch (ExecutionException e) {
+			throw new IOException("Failed to list " + workspace, e.getCause());
+		}
+	}
+
+	/**
+	 * Writes the names of the files, front-coded, to a compressed stream.
+	 */
+	static void write(File workspace, OutputStream stream) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new GZIPOutputStream(stream, CHUNK_SIZE), CHUNK_SIZE))) {
+			FrontCoding.Writer writer = new FrontCoding.Writer(out);
+			walk(workspace, writer::write);
+			writer.end();
+		}
+	}
+
+	/**
+	 * Reads the names written by {@link #write(File, OutputStream)}.
+	 */
+	static void read(InputStream stream, Consumer<String> consumer) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new GZIPInputStream(stream, CHUNK_SIZE), CHUNK_SIZE));
+		FrontCoding.Reader reader = new FrontCoding.Reader(in);
+		String name;
+		while ((name = reader.next()) != null) {
+			consumer.accept(name);
+		}
+	}
+
+	/**
+	 * Walks the workspace depth first, so consecutive names mostly share their folder.
+	 */
+	private static void walk(File workspace, final NameVisitor visitor) throws IOException {
+		final Path root = workspace.toPath();
+		// follows links to folders and skips unreadable folders, like FileUtils.listFiles() did
+		Files.walkFileTree(root, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE,
+				new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				if (!attrs.isDirectory()) {
+					visitor.visit(root.relativize(file).toString());
+				}
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFileFailed(Path file, IOException e) {
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	private interface NameVisitor {
+		void visit(String name) throws IOException;
+	}
+
+	/**
+	 * Writes the listing of the workspace to a pipe.
+	 */
+	private static class Streaming extends MasterToSlaveFileCallable<Void> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Pipe pipe;
+
+		Streaming(Pipe pipe) {
+			this.pipe = pipe;
+		}
+
+		public Void invoke(File workspace, VirtualChannel channel) throws IOException {
+			write(workspace, pipe.getOut());
+			return null;
+		}
+	}
 }
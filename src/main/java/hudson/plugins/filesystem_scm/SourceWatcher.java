@@ -0,0 +1,325 @@
+package hudson.plugins.filesystem_scm;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystemLoopException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.CheckForNull;
+
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+
+/**
+ * Watches a source folder with a {@link WatchService}, so polling does not have
+ * to scan it as long as nothing happened.
+ *
+ * <p>
+ * Every directory below the source folder is registered, new directories as
+ * soon as they show up. Every event increments a counter; polling asks for the
+ * counter with {@link Query} and only scans the folder if events arrived since
+ * the value the job last acknowledged. If events were lost ({@code OVERFLOW}),
+ * the counter is incremented as well, so the next poll does a full scan.
+ * </p>
+ *
+ * <p>
+ * Watchers live on the node the source folder is read on, one per source
+ * folder, shared by all jobs watching it; only the acknowledged value is kept
+ * per job. A job that has not asked for {@link #IDLE_TIMEOUT_MINUTES} minutes,
+ * e.g. because it was deleted or the option turned off, is forgotten, and a
+ * watcher no job asked for that long closes itself.
+ * </p>
+ *
+ * <p>
+ * If the folder cannot be watched, e.g. because the limit of watches is reached
+ * or a directory cannot be read, there is no watcher and polling scans the
+ * folder every time. Watching is tried again after
+ * {@link #IDLE_TIMEOUT_MINUTES} minutes.
+ * </p>
+ */
+final class SourceWatcher {
+
+    private static final Logger LOGGER = Logger.getLogger(SourceWatcher.class.getName());
+
+    static final long IDLE_TIMEOUT_MINUTES = 30;
+
+    /**
+     * The running watchers by source folder, guarded by itself.
+     */
+    private static final Map<String, SourceWatcher> WATCHERS = new HashMap<>();
+    /**
+     * When watching failed by source folder, guarded by {@link #WATCHERS}.
+     */
+    private static final Map<String, Long> FAILURES = new HashMap<>();
+
+    private final String path;
+    private final Path root;
+    private final WatchService service;
+    private final Map<WatchKey, Path> keys = new ConcurrentHashMap<>();
+    /**
+     * Starts at 1, as nothing is known about the folder before it is watched.
+     */
+    private final AtomicLong events = new AtomicLong(1);
+    /**
+     * The jobs watching the folder by full name.
+     */
+    private final Map<String, Subscriber> subscribers = new ConcurrentHashMap<>();
+    private volatile long lastUsed = System.currentTimeMillis();
+    private volatile boolean closed;
+
+    private SourceWatcher(String path, Path root) throws IOException {
+        this.path = path;
+        this.root = root;
+        this.service = root.getFileSystem().newWatchService();
+        try {
+            registerAll(root);
+        } catch (IOException e) {
+            service.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @param path
+     *            the source folder
+     * @return the running watcher, a new one if there was none, or {@code null}
+     *         if the source folder does not exist or cannot be watched
+     */
+    @CheckForNull
+    static SourceWatcher get(String path) {
+        synchronized (WATCHERS) {
+            SourceWatcher watcher = WATCHERS.get(path);
+            if (watcher == null || watcher.closed) {
+                File root = new File(path);
+                if (!root.isDirectory()) {
+                    return null;
+                }
+                Long failed = FAILURES.get(path);
+                if (failed != null
+                        && System.currentTimeMillis() - failed < TimeUnit.MINUTES.toMillis(IDLE_TIMEOUT_MINUTES)) {
+                    return null;
+                }
+                try {
+                    watcher = new SourceWatcher(path, root.toPath());
+                } catch (IOException | RuntimeException e) {
+                    // only logged once, the folder is scanned instead
+                    LOGGER.log(failed == null ? Level.WARNING : Level.FINE,
+                            "Cannot watch " + path + ", polling scans it instead", e);
+                    FAILURES.put(path, System.currentTimeMillis());
+                    return null;
+                }
+                FAILURES.remove(path);
+                Thread thread = new Thread(watcher::run, "FSSCM watcher for " + path);
+                thread.setDaemon(true);
+                thread.start();
+                WATCHERS.put(path, watcher);
+            }
+            watcher.lastUsed = System.currentTimeMillis();
+            return watcher;
+        }
+    }
+
+    /**
+     * @param job
+     *            the full name of the job
+     * @return 0 if no event arrived since the last one the job acknowledged,
+     *         otherwise the current event counter, which can be passed to
+     *         {@link #acknowledge(String, long)} once the folder has been
+     *         scanned
+     */
+    long pending(String job) {
+        long current = events.get();
+        return current > subscriber(job).acknowledged.get() ? current : 0;
+    }
+
+    /**
+     * @param job
+     *            the full name of the job
+     * @param upTo
+     *            the event counter returned by {@link #pending(String)} before
+     *            the folder was scanned, or a negative value for all events so
+     *            far
+     */
+    void acknowledge(String job, long upTo) {
+        long value = upTo < 0 ? events.get() : upTo;
+        subscriber(job).acknowledged.accumulateAndGet(value, Math::max);
+    }
+
+    private Subscriber subscriber(String job) {
+        Subscriber subscriber = subscribers.computeIfAbsent(job, k -> new Subscriber());
+        subscriber.lastUsed = System.currentTimeMillis();
+        return subscriber;
+    }
+
+    private void run() {
+        try {
+            long checked = System.currentTimeMillis();
+            while (!closed) {
+                WatchKey key = service.poll(1, TimeUnit.MINUTES);
+                if (key != null) {
+                    process(key);
+                }
+                long now = System.currentTimeMillis();
+                if (now - checked >= TimeUnit.MINUTES.toMillis(1)) {
+                    // about once a minute, even while events keep coming
+                    checked = now;
+                    long idleSince = now - TimeUnit.MINUTES.toMillis(IDLE_TIMEOUT_MINUTES);
+                    subscribers.values().removeIf(subscriber -> subscriber.lastUsed < idleSince);
+                    if (lastUsed < idleSince) {
+                        close();
+                    }
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // closing down
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Failed to watch " + root, e);
+        } finally {
+            close();
+        }
+    }
+
+    private void process(WatchKey key) throws IOException {
+        Path dir = keys.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            // register new directories before counting the event, so a scan
+            // started because of the event cannot miss files created in them
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                // events were lost, new directories may not be registered
+                registerAll(root);
+            } else if (dir != null && event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                Path child = dir.resolve((Path) event.context());
+                if (Files.isDirectory(child)) {
+                    registerAll(child);
+                }
+            }
+            events.incrementAndGet();
+        }
+        if (!key.reset()) {
+            keys.remove(key);
+            if (keys.isEmpty()) {
+                // the source folder itself is gone
+                events.incrementAndGet();
+                close();
+            }
+        }
+    }
+
+    private void registerAll(Path start) throws IOException {
+        Files.walkFileTree(start, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE,
+                new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                        WatchKey key = dir.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+                                StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+                        keys.put(key, dir);
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path file, IOException e) {
+                        // a link loop or a directory deleted meanwhile, the scan will deal with it
+                        if (!(e instanceof FileSystemLoopException) && Files.exists(file, LinkOption.NOFOLLOW_LINKS)) {
+                            LOGGER.log(Level.FINE, "Cannot watch " + file, e);
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+    }
+
+    void close() {
+        closed = true;
+        synchronized (WATCHERS) {
+            WATCHERS.remove(path, this);
+        }
+        try {
+            service.close();
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Failed to close the watcher of " + root, e);
+        }
+    }
+
+    /**
+     * What a job acknowledged of the shared watcher.
+     */
+    private static final class Subscriber {
+        /**
+         * Starts at 0, so a job new to a running watcher scans once.
+         */
+        private final AtomicLong acknowledged = new AtomicLong();
+        private volatile long lastUsed;
+    }
+
+    /**
+     * Asks the watcher of the source folder whether events arrived since the
+     * job last acknowledged, see {@link #pending(String)}. Starts the watcher
+     * if it is not running yet.
+     */
+    static final class Query extends MasterToSlaveFileCallable<Long> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String job;
+        private final String path;
+
+        Query(String job, String path) {
+            this.job = job;
+            this.path = path;
+        }
+
+        @Override
+        public Long invoke(File workspace, VirtualChannel channel) {
+            SourceWatcher watcher = get(path);
+            // no source folder or not watched, leave it to the scan
+            return watcher == null ? 1 : watcher.pending(job);
+        }
+    }
+
+    /**
+     * Tells the watcher of the source folder that the job dealt with the events
+     * up to a counter value, see {@link #acknowledge(String, long)}. Starts the
+     * watcher if it is not running yet.
+     */
+    static final class Acknowledge extends MasterToSlaveFileCallable<Void> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String job;
+        private final String path;
+        private final long upTo;
+
+        Acknowledge(String job, String path, long upTo) {
+            this.job = job;
+            this.path = path;
+            this.upTo = upTo;
+        }
+
+        @Override
+        public Void invoke(File workspace, VirtualChannel channel) {
+            SourceWatcher watcher = get(path);
+            if (watcher != null) {
+                watcher.acknowledge(job, upTo);
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package hudson.plugins.filesystem_scm;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Computes a fingerprint of a folder from the path, size and last modified time
+ * of its files.
+ *
+ * <p>
+ * Every directory gets a digest of its sorted files and of the digests of its
+ * sub directories; the fingerprint is the digest of the root. Files may
+ * therefore be added in any order and from several threads, as the parallel
+ * {@link MergedTreeWalker} does, and still give the same fingerprint.
+ * </p>
+ *
+ * <p>
+ * Both separators, '/' and '\', split directories, so a fingerprint computed on
+ * the controller from a {@link CheckoutManifest} written by a Windows agent
+ * matches the one computed on that agent.
+ * </p>
+ */
+final class TreeFingerprint {
+
+    private static final byte FILE = 'F';
+    private static final byte DIRECTORY = 'D';
+
+    private final Map<String, List<Leaf>> directories = new ConcurrentHashMap<>();
+
+    /**
+     * @param relativeName
+     *            the name relative to the folder
+     * @param size
+     *            the size of the file
+     * @param lastModified
+     *            the last modified time of the file in milliseconds
+     */
+    void add(String relativeName, long size, long lastModified) {
+        int i = lastSeparator(relativeName);
+        Leaf leaf = new Leaf(FILE, relativeName.substring(i + 1), size, lastModified, null);
+        List<Leaf> leaves = directories.computeIfAbsent(relativeName.substring(0, Math.max(i, 0)),
+                k -> Collections.synchronizedList(new ArrayList<>()));
+        leaves.add(leaf);
+    }
+
+    /**
+     * Must only be called once, after all files were added.
+     *
+     * @return the hex encoded digest of the whole folder
+     */
+    String digest() {
+        // make sure every directory has its parents, even those without files
+        for (String dir : new ArrayList<>(directories.keySet())) {
+            for (int i = lastSeparator(dir); i >= 0; i = lastSeparator(dir.substring(0, i))) {
+                directories.computeIfAbsent(dir.substring(0, i), k -> Collections.synchronizedList(new ArrayList<>()));
+            }
+        }
+        directories.computeIfAbsent("", k -> Collections.synchronizedList(new ArrayList<>()));
+
+        // a sub directory name is always longer than its parent's, so children come first
+        List<String> dirs = new ArrayList<>(directories.keySet());
+        dirs.sort(Comparator.comparingInt(String::length).reversed());
+
+        MessageDigest md = newDigest();
+        String root = null;
+        for (String dir : dirs) {
+            byte[] digest = digest(md, directories.get(dir));
+            if (dir.isEmpty()) {
+                root = HexFormat.of().formatHex(digest);
+            } else {
+                int i = lastSeparator(dir);
+                directories.get(dir.substring(0, Math.max(i, 0)))
+                        .add(new Leaf(DIRECTORY, dir.substring(i + 1), 0, 0, digest));
+            }
+        }
+        return root;
+    }
+
+    private static byte[] digest(MessageDigest md, List<Leaf> leaves) {
+        List<Leaf> sorted = new ArrayList<>(leaves);
+        sorted.sort(Comparator.comparing((Leaf leaf) -> leaf.name).thenComparing(leaf -> leaf.type));
+        md.reset();
+        try (DataOutputStream out = new DataOutputStream(new DigestOutputStream(OutputStream.nullOutputStream(), md))) {
+            for (Leaf leaf : sorted) {
+                out.writeByte(leaf.type);
+                out.writeUTF(leaf.name);
+                if (leaf.digest != null) {
+                    out.write(leaf.digest);
+                } else {
+                    out.writeLong(leaf.size);
+                    out.writeLong(leaf.lastModified);
+                }
+            }
+        } catch (IOException e) {
+            // cannot happen, nothing is written anywhere
+            throw new IllegalStateException(e);
+        }
+        return md.digest();
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static int lastSeparator(String name) {
+        return Math.max(name.lastIndexOf('/'), name.lastIndexOf('\\'));
+    }
+
+    private static final class Leaf {
+        private final byte type;
+        private final String name;
+        private final long size;
+        private final long lastModified;
+        private final byte[] digest;
+
+        Leaf(byte type, String name, long size, long lastModified, byte[] digest) {
+            this.type = type;
+            this.name = name;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.digest = digest;
+        }
+    }
+}
@@ -0,0 +1,422 @@
+package hudson.plugins.filesystem_scm;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import javax.annotation.CheckForNull;
+
+/**
+ * All wildcards of a filter compiled into one automaton over path segments.
+ *
+ * <p>
+ * Accepts the same wildcards as {@link SimpleAntWildcardFilter}: {@code *} and
+ * {@code ?} within a segment, {@code **} for any number of segments, compared
+ * case-insensitively. A relative wildcard matches the end of the absolute
+ * path, as if it started with {@code **}. Instead of running one regular
+ * expression per wildcard on the absolute path of every file, the relative name
+ * of the file is fed segment by segment through a nondeterministic automaton
+ * holding the positions of all wildcards at once, as a bit set. The segments of
+ * the source folder itself are fed once per walk, by {@link #rootedAt(File)},
+ * so a wildcard can still reach above the source folder like before. Nothing
+ * is allocated per file except two bit sets.
+ * </p>
+ *
+ * <p>
+ * Compiled matchers are kept in a small shared cache by {@link #get(boolean, String[])},
+ * so jobs polling every minute do not compile their wildcards again each time.
+ * A matcher is serialized in its compiled form; on the agent it is swapped for
+ * the instance cached there, if any.
+ * </p>
+ *
+ * <p>
+ * Absolute wildcards, and wildcards using regular expression syntax which
+ * {@link SimpleAntWildcardFilter} happens to pass through, are still matched by
+ * {@link SimpleAntWildcardFilter} on the absolute path.
+ * </p>
+ */
+final class WildcardMatcher implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final String REGEX_CHARS = "[]{}()+^$|";
+
+    /**
+     * The number of compiled filters kept, a few hundred bytes each.
+     */
+    static final int CACHE_SIZE = 256;
+
+    private static final Map<String, WildcardMatcher> CACHE = Collections.synchronizedMap(new LruMap());
+
+    /**
+     * The cache key, {@code null} for a matcher rooted at a source folder.
+     */
+    @CheckForNull
+    private final String key;
+    private final boolean include;
+    /**
+     * The segment wildcard at each position, {@code null} for {@code **} and for
+     * the final position of each wildcard.
+     */
+    private final String[] segments;
+    private final boolean[] globstar;
+    /**
+     * The final (accepting) position of each compiled wildcard.
+     */
+    private final int[] accepting;
+    /**
+     * The positions followed by nothing but {@code **}: once reached, the
+     * wildcard matches everything below.
+     */
+    private final long[] matchingAll;
+    private final long[] initial;
+    private final Pattern[] fallback;
+
+    private WildcardMatcher(String key, boolean include, List<String[]> compiled, List<Pattern> fallback) {
+        this.key = key;
+        this.include = include;
+        int positions = 0;
+        for (String[] wildcard : compiled) {
+            // a leading "**" for the tail match, one position per segment, and the final one
+            positions += wildcard.length + 2;
+        }
+        this.segments = new String[positions];
+        this.globstar = new boolean[positions];
+        this.accepting = new int[compiled.size()];
+        this.matchingAll = new long[(positions + 63) / 64];
+        this.initial = new long[matchingAll.length];
+        int position = 0;
+        for (int i = 0; i < compiled.size(); i++) {
+            set(initial, position);
+            globstar[position++] = true;
+            for (String segment : compiled.get(i)) {
+                if ("**".equals(segment)) {
+                    globstar[position++] = true;
+                } else {
+                    segments[position++] = segment;
+                }
+            }
+            accepting[i] = position;
+            for (int tail = position - 1; tail >= 0 && globstar[tail]; tail--) {
+                set(matchingAll, tail);
+            }
+            position++;
+        }
+        closure(initial);
+        this.fallback = fallback.toArray(new Pattern[0]);
+    }
+
+    private WildcardMatcher(WildcardMatcher compiled, long[] initial) {
+        this.key = null;
+        this.include = compiled.include;
+        this.segments = compiled.segments;
+        this.globstar = compiled.globstar;
+        this.accepting = compiled.accepting;
+        this.matchingAll = compiled.matchingAll;
+        this.initial = initial;
+        this.fallback = compiled.fallback;
+    }
+
+    /**
+     * @param include
+     *            true if a file has to match all wildcards, false if it must not
+     *            match any
+     * @param wildcards
+     *            the wildcards
+     * @return the compiled matcher, shared with other filters having the same
+     *         wildcards
+     */
+    static WildcardMatcher get(boolean include, String[] wildcards) {
+        String key = key(include, wildcards);
+        WildcardMatcher matcher = CACHE.get(key);
+        if (matcher == null) {
+            matcher = compile(key, include, wildcards);
+            CACHE.put(key, matcher);
+        }
+        return matcher;
+    }
+
+    /**
+     * @param include
+     *            true if a file has to match all wildcards, false if it must not
+     *            match any
+     * @param wildcards
+     *            the wildcards
+     * @param root
+     *            the folder the names passed to {@link #accept(String, File)} are
+     *            relative to
+     * @return the matcher, not cached
+     */
+    static WildcardMatcher compile(boolean include, String[] wildcards, File root) {
+        return compile(key(include, wildcards), include, wildcards).rootedAt(root);
+    }
+
+    private static WildcardMatcher compile(String key, boolean include, String[] wildcards) {
+        List<String[]> compiled = new ArrayList<>();
+        List<Pattern> fallback = new ArrayList<>();
+        for (String wildcard : wildcards) {
+            String[] segments = split(wildcard);
+            if (segments == null) {
+                fallback.add(new SimpleAntWildcardFilter(wildcard).getPattern());
+            } else {
+                compiled.add(segments);
+            }
+        }
+        return new WildcardMatcher(key, include, compiled, fallback);
+    }
+
+    private static String key(boolean include, String[] wildcards) {
+        StringBuilder key = new StringBuilder();
+        key.append(include ? 'I' : 'E');
+        for (String wildcard : wildcards) {
+            key.append('\n').append(wildcard);
+        }
+        return key.toString();
+    }
+
+    /**
+     * @param root
+     *            the folder the names passed to {@link #accept(String, File)} are
+     *            relative to
+     * @return a matcher sharing the automaton of this one
+     */
+    WildcardMatcher rootedAt(File root) {
+        long[] state = initial.clone();
+        long[] next = new long[state.length];
+        // the root of an absolute path, "" or a drive, is not preceded by a '/'
+        String rootPath = root.getAbsolutePath();
+        int start = separator(rootPath, 0) + 1;
+        while (start > 0 && start < rootPath.length()) {
+            int end = separator(rootPath, start);
+            boolean alive = advance(state, next, rootPath, start, end);
+            System.arraycopy(next, 0, state, 0, state.length);
+            if (!alive) {
+                break;
+            }
+            start = end + 1;
+        }
+        return new WildcardMatcher(this, state);
+    }
+
+    private Object readResolve() {
+        if (key == null) {
+            return this;
+        }
+        synchronized (CACHE) {
+            WildcardMatcher cached = CACHE.get(key);
+            if (cached != null) {
+                return cached;
+            }
+            CACHE.put(key, this);
+            return this;
+        }
+    }
+
+    /**
+     * @return the segments of a relative wildcard, or {@code null} if it has to
+     *         be matched by {@link SimpleAntWildcardFilter}
+     */
+    private static String[] split(String wildcard) {
+        String[] segments = wildcard.replace('\\', '/').split("/");
+        if (segments.length == 0 || segments[0].matches("[a-zA-Z]\\:")) {
+            // absolute path
+            return null;
+        }
+        for (String segment : segments) {
+            if (segment.isEmpty()) {
+                // absolute path, or an empty segment
+                return null;
+            }
+            for (int i = 0; i < segment.length(); i++) {
+                if (REGEX_CHARS.indexOf(segment.charAt(i)) >= 0) {
+                    return null;
+                }
+            }
+        }
+        return segments;
+    }
+
+    /**
+     * @param relativeName
+     *            the name of a file relative to the source folder, with '/' or
+     *            '\' as separator
+     * @param file
+     *            the file, only used for wildcards matched on the absolute path
+     * @return true if the file passes the filter
+     */
+    boolean accept(String relativeName, File file) {
+        long[] current = run(relativeName);
+        for (int position : accepting) {
+            boolean matched = (current[position >>> 6] & 1L << position) != 0;
+            if (matched != include) {
+                return false;
+            }
+        }
+        if (fallback.length > 0) {
+            String fullPath = file.getAbsolutePath().replace('\\', '/');
+            for (Pattern pattern : fallback) {
+                if (pattern.matcher(fullPath).find() != include) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Tells whether a directory can be skipped because an exclude wildcard
+     * matches every file below it, like {@code **}{@code /node_modules/**} does.
+     * Include wildcards match the end of a path, so some file deep enough below
+     * any directory could still pass them.
+     *
+     * @param relativeName
+     *            the name of a directory relative to the source folder, with '/'
+     *            or '\' as separator
+     * @return true if no file below the directory passes the filter
+     */
+    boolean excludesAllBelow(String relativeName) {
+        if (include) {
+            return false;
+        }
+        long[] current = run(relativeName);
+        for (int w = 0; w < current.length; w++) {
+            if ((current[w] & matchingAll[w]) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private long[] run(String relativeName) {
+        long[] current = initial.clone();
+        long[] next = new long[current.length];
+        int start = 0;
+        while (start <= relativeName.length()) {
+            int end = separator(relativeName, start);
+            if (!advance(current, next, relativeName, start, end)) {
+                Arrays.fill(current, 0L);
+                break;
+            }
+            long[] swap = current;
+            current = next;
+            next = swap;
+            start = end + 1;
+        }
+        return current;
+    }
+
+    /**
+     * Moves the automaton over the segment {@code name[start, end)}.
+     *
+     * @return false if no wildcard can match anymore
+     */
+    private boolean advance(long[] current, long[] next, String name, int start, int end) {
+        Arrays.fill(next, 0L);
+        boolean alive = false;
+        for (int w = 0; w < current.length; w++) {
+            long bits = current[w];
+            while (bits != 0) {
+                int position = w * 64 + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                if (globstar[position]) {
+                    set(next, position);
+                    alive = true;
+                } else if (segments[position] != null && matchSegment(segments[position], name, start, end)) {
+                    set(next, position + 1);
+                    alive = true;
+                }
+            }
+        }
+        closure(next);
+        return alive;
+    }
+
+    private static int separator(String name, int from) {
+        int i = from;
+        while (i < name.length() && name.charAt(i) != '/' && name.charAt(i) != '\\') {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Adds the positions reachable by skipping a {@code **}.
+     */
+    private void closure(long[] states) {
+        for (int w = 0; w < states.length; w++) {
+            long bits = states[w];
+            while (bits != 0) {
+                int position = w * 64 + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                if (globstar[position]) {
+                    set(states, position + 1);
+                    if ((position + 1) >>> 6 == w) {
+                        bits |= 1L << (position + 1);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void set(long[] states, int position) {
+        states[position >>> 6] |= 1L << position;
+    }
+
+    /**
+     * Matches one segment wildcard against {@code name[from, to)}, ignoring the
+     * case of ASCII letters like {@link Pattern#CASE_INSENSITIVE} does.
+     */
+    static boolean matchSegment(String wildcard, String name, int from, int to) {
+        int p = 0;
+        int i = from;
+        int starP = -1;
+        int starI = from;
+        int length = wildcard.length();
+        while (i < to) {
+            char c = p < length ? wildcard.charAt(p) : 0;
+            if (p < length && (c == '?' || equalsIgnoreCase(c, name.charAt(i)))) {
+                p++;
+                i++;
+            } else if (c == '*') {
+                starP = p++;
+                starI = i;
+            } else if (starP >= 0) {
+                p = starP + 1;
+                i = ++starI;
+            } else {
+                return false;
+            }
+        }
+        while (p < length && wildcard.charAt(p) == '*') {
+            p++;
+        }
+        return p == length;
+    }
+
+    private static boolean equalsIgnoreCase(char a, char b) {
+        if (a == b) {
+            return true;
+        }
+        char lower = (char) (a | 0x20);
+        return lower >= 'a' && lower <= 'z' && lower == (b | 0x20);
+    }
+
+    private static final class LruMap extends LinkedHashMap<String, WildcardMatcher> {
+        private static final long serialVersionUID = 1L;
+
+        LruMap() {
+            super(16, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, WildcardMatcher> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package hudson.plugins.filesystem_scm;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import jenkins.benchmark.jmh.JmhBenchmark;
+
+/**
+ * Saves and loads the {@link AllowDeleteList} of a workspace.
+ */
+@JmhBenchmark
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class AllowDeleteListBenchmark {
+
+    @Param({ "10000", "1000000" })
+    public int paths;
+
+    private File folder;
+    private Set<String> names;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        folder = Files.createTempDirectory("fsscm-allow-delete").toFile();
+        names = new PathSet();
+        for (int i = 0; i < paths; i++) {
+            names.add("module" + i % 10 + File.separator + "src" + File.separator + "package" + i / 1000 % 100
+                    + File.separator + "File" + i + ".java");
+        }
+        AllowDeleteList list = new AllowDeleteList(folder);
+        list.setList(names);
+        list.save();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(folder);
+    }
+
+    @Benchmark
+    public AllowDeleteList save() throws IOException {
+        AllowDeleteList list = new AllowDeleteList(folder);
+        list.setList(names);
+        list.save();
+        return list;
+    }
+
+    @Benchmark
+    public AllowDeleteList load() throws IOException {
+        AllowDeleteList list = new AllowDeleteList(folder);
+        list.load();
+        return list;
+    }
+}
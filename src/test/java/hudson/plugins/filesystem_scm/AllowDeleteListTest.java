@@ -0,0 +1,170 @@
+package hudson.plugins.filesystem_scm;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AllowDeleteListTest {
+
+    @TempDir
+    private File folder;
+
+    @Test
+    void load_linesWrittenByOlderVersion_readAndConvertedOnSave() throws IOException {
+        File file = new File(folder, "fsscm_allow_delete_list.dat");
+        Files.write(file.toPath(), "a/b.txt\nc.txt\n\n".getBytes(StandardCharsets.UTF_8));
+
+        AllowDeleteList list = new AllowDeleteList(folder);
+        list.load();
+        assertEquals(set("a/b.txt", "c.txt"), list.getList());
+        list.save();
+
+        assertFalse(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8).contains("\n"));
+        AllowDeleteList reloaded = new AllowDeleteList(folder);
+        reloaded.load();
+        assertEquals(set("a/b.txt", "c.txt"), reloaded.getList());
+    }
+
+    @Test
+    void save_fewChanges_onlyJournalWritten() throws IOException {
+        Set<String> names = new HashSet<>();
+        for (int i = 0; i < 2000; i++) {
+            names.add("dir" + (i % 10) + "/file" + i + ".txt");
+        }
+        AllowDeleteList list = new AllowDeleteList(folder);
+        list.setList(names);
+        list.save();
+        File file = new File(folder, "fsscm_allow_delete_list.dat");
+        long lastModified = file.lastModified();
+        byte[] snapshot = Files.readAllBytes(file.toPath());
+
+        list = new AllowDeleteList(folder);
+        list.load();
+        assertTrue(list.add("new.txt"));
+        assertFalse(list.add("new.txt"));
+        assertTrue(list.remove("dir3/file3.txt"));
+        list.save();
+
+        assertEquals(lastModified, file.lastModified());
+        assertTrue(Arrays.equals(snapshot, Files.readAllBytes(file.toPath())));
+        assertTrue(new File(folder, "fsscm_allow_delete_list.journal").exists());
+        names.add("new.txt");
+        names.remove("dir3/file3.txt");
+        AllowDeleteList reloaded = new AllowDeleteList(folder);
+        reloaded.load();
+        assertEquals(names, reloaded.getList());
+    }
+
+    @Test
+    void save_manyChanges_compactedIntoSnapshot() throws IOException {
+        AllowDeleteList list = new AllowDeleteList(folder);
+        list.setList(set("keep.txt"));
+        list.save();
+        for (int round = 0; round < 3; round++) {
+            list = new AllowDeleteList(folder);
+            list.load();
+            for (int i = 0; i < AllowDeleteList.MIN_COMPACTION / 2; i++) {
+                list.add("round" + round + "/file" + i);
+            }
+            list.save();
+        }
+
+        assertFalse(new File(folder, "fsscm_allow_delete_list.journal").exists());
+        AllowDeleteList reloaded = new AllowDeleteList(folder);
+        reloaded.load();
+        assertEquals(1 + 3 * AllowDeleteList.MIN_COMPACTION / 2, reloaded.getList().size());
+    }
+
+    @Test
+    void load_journalLeftOverFromBeforeCompaction_ignored() throws IOException {
+        AllowDeleteList list = new AllowDeleteList(folder);
+        list.setList(set("a.txt", "b.txt"));
+        list.save();
+        list.load();
+        list.remove("a.txt");
+        list.save();
+        File journal = new File(folder, "fsscm_allow_delete_list.journal");
+        byte[] stale = Files.readAllBytes(journal.toPath());
+
+        // compacted with a.txt back in, then the journal could not be deleted
+        list.setList(set("a.txt", "b.txt"));
+        list.save();
+        Files.write(journal.toPath(), stale);
+
+        AllowDeleteList reloaded = new AllowDeleteList(folder);
+        reloaded.load();
+        assertEquals(set("a.txt", "b.txt"), reloaded.getList());
+    }
+
+    @Test
+    void load_journalCutShort_lastEntryDroppedAndRewrittenOnSave() throws IOException {
+        AllowDeleteList list = new AllowDeleteList(folder);
+        list.setList(set("a.txt"));
+        list.save();
+        list.load();
+        list.add("b.txt");
+        list.add("torn.txt");
+        list.save();
+        File journal = new File(folder, "fsscm_allow_delete_list.journal");
+        byte[] content = Files.readAllBytes(journal.toPath());
+        // a crash while appending the last entry
+        Files.write(journal.toPath(), Arrays.copyOf(content, content.length - 3));
+
+        list = new AllowDeleteList(folder);
+        list.load();
+        assertEquals(set("a.txt", "b.txt"), list.getList());
+        list.add("c.txt");
+        list.save();
+
+        AllowDeleteList reloaded = new AllowDeleteList(folder);
+        reloaded.load();
+        assertEquals(set("a.txt", "b.txt", "c.txt"), reloaded.getList());
+    }
+
+    @Test
+    void checkOut_agentAllowDeleteList_keptNextToWorkspaceAndOnlyOwnFilesDeleted() throws IOException {
+        File src = new File(folder, "src");
+        File workspace = new File(folder, "ws");
+        Files.createDirectories(new File(src, "dir").toPath());
+        Files.write(new File(src, "dir/a.txt").toPath(), new byte[1]);
+        Files.write(new File(src, "b.txt").toPath(), new byte[1]);
+        Files.createDirectories(workspace.toPath());
+        Files.write(new File(workspace, "b.txt").toPath(), new byte[1]);
+
+        checkOut(src, workspace);
+        AllowDeleteList list = new AllowDeleteList(new File(folder, "ws@tmp"));
+        list.load();
+        assertEquals(set("dir" + File.separator + "a.txt", "b.txt"), list.getList());
+
+        Files.write(new File(workspace, "own.txt").toPath(), new byte[1]);
+        Files.delete(new File(src, "b.txt").toPath());
+        checkOut(src, workspace);
+
+        assertFalse(new File(workspace, "b.txt").exists());
+        assertTrue(new File(workspace, "own.txt").exists());
+        list.load();
+        assertEquals(set("dir" + File.separator + "a.txt"), list.getList());
+    }
+
+    private static void checkOut(File src, File workspace) throws IOException {
+        RemoteFolderDiff.CheckOut callable = new RemoteFolderDiff.CheckOut();
+        callable.setSrcPath(src.getAbsolutePath());
+        callable.setAgentAllowDeleteList(true);
+        callable.invoke(workspace, null);
+    }
+
+    private static Set<String> set(String... names) {
+        return new HashSet<>(Arrays.asList(names));
+    }
+}
@@ -0,0 +1,31 @@
+package hudson.plugins.filesystem_scm;
+
+import org.junit.jupiter.api.Test;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import jenkins.benchmark.jmh.BenchmarkFinder;
+
+/**
+ * Runs all classes annotated with {@link jenkins.benchmark.jmh.JmhBenchmark}.
+ * Not part of the normal test run; use {@code mvn test -Dbenchmark}. Results
+ * are written to {@code jmh-report.json}.
+ */
+class BenchmarkRunner {
+
+    @Test
+    void runJmhBenchmarks() throws Exception {
+        ChainedOptionsBuilder options = new OptionsBuilder()
+                .forks(1)
+                .shouldFailOnError(true)
+                .shouldDoGC(true)
+                .resultFormat(ResultFormatType.JSON)
+                .result("jmh-report.json");
+
+        // iterations, modes and parameters are set on the benchmark classes
+        new BenchmarkFinder(getClass()).findBenchmarks(options);
+        new Runner(options.build()).run();
+    }
+}
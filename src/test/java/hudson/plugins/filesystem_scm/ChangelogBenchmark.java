@@ -0,0 +1,110 @@
+package hudson.plugins.filesystem_scm;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import hudson.model.Run;
+import jenkins.benchmark.jmh.JmhBenchmark;
+
+/**
+ * Writes and reads the changelog of a checkout with
+ * {@link ChangelogSet.XMLSerializer}, writing either a {@link ChangelogSet}
+ * through XStream or the changes straight away, as XML or in the
+ * {@link CompactChangelog} format.
+ */
+@JmhBenchmark
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ChangelogBenchmark {
+
+    @Param({ "100", "100000" })
+    public int entries;
+
+    private File file;
+    private File compactFile;
+    private List<FolderDiff.Entry> changes;
+    private ChangelogSet changelogSet;
+    private ChangelogSet.XMLSerializer serializer;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = Files.createTempFile("fsscm-changelog", ".xml").toFile();
+        compactFile = Files.createTempFile("fsscm-changelog", ".bin").toFile();
+        changes = new ArrayList<>();
+        for (int i = 0; i < entries; i++) {
+            changes.add(new FolderDiff.Entry("module" + i % 10 + "/src/package" + i / 1000 % 100 + "/File" + i
+                    + ".java", FolderDiff.Entry.Type.values()[i % 3]));
+        }
+        changelogSet = new ChangelogSet(null, changes);
+        serializer = new ChangelogSet.XMLSerializer();
+        serializer.save(changelogSet, file);
+        serializer.saveCompact(changes, compactFile);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.delete(file.toPath());
+        Files.delete(compactFile.toPath());
+    }
+
+    @Benchmark
+    public File save() throws IOException {
+        serializer.save(changelogSet, file);
+        return file;
+    }
+
+    @Benchmark
+    public File saveStreamed() throws IOException {
+        serializer.save(changes, file);
+        return file;
+    }
+
+    @Benchmark
+    public File saveCompact() throws IOException {
+        serializer.saveCompact(changes, compactFile);
+        return compactFile;
+    }
+
+    @Benchmark
+    public int parse() throws IOException {
+        return readAll(serializer.parse((Run<?, ?>) null, file));
+    }
+
+    @Benchmark
+    public int parseCompact() throws IOException {
+        return readAll(serializer.parse((Run<?, ?>) null, compactFile));
+    }
+
+    /**
+     * Reads all paths, which the parser only reads when they are shown.
+     */
+    private static int readAll(ChangelogSet set) {
+        int length = 0;
+        for (Changelog changelog : set) {
+            for (Changelog.Path path : changelog.getAffectedFiles()) {
+                length += path.getValue().length();
+            }
+        }
+        return length;
+    }
+}
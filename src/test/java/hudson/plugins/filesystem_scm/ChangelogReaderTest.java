@@ -0,0 +1,201 @@
+package hudson.plugins.filesystem_scm;
+
+import hudson.model.Run;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class ChangelogReaderTest {
+
+    @TempDir
+    private File folder;
+
+    @Test
+    void parse_readsCountsAtOnceAndPathsWhenIterated() throws IOException {
+        List<FolderDiff.Entry> changes = new ArrayList<>();
+        for (int i = 0; i < 2500; i++) {
+            changes.add(new FolderDiff.Entry("dir/file" + i + ".txt", FolderDiff.Entry.Type.values()[i % 5 == 0 ? 2 : i % 2]));
+        }
+        File file = new File(folder, "changelog.xml");
+        ChangelogSet.XMLSerializer serializer = new ChangelogSet.XMLSerializer();
+        serializer.save(changes, file);
+
+        ChangelogSet set = serializer.parse((Run<?, ?>) null, file);
+
+        assertFalse(set.isEmptySet());
+        assertEquals(new ChangelogSet(null, changes), set);
+        Changelog changelog = set.iterator().next();
+        assertSame(set, changelog.getParent());
+        assertEquals(new Changelog(null, changes).getMsg(), changelog.getMsg());
+        assertEquals(2500, changelog.getAffectedPaths().size());
+        Iterator<Changelog.Path> it = changelog.getAffectedFiles().iterator();
+        assertEquals("dir/file0.txt", it.next().getValue());
+        Changelog.Path second = it.next();
+        assertEquals("ADD", second.getAction());
+        assertSame(changelog, second.getChangelog());
+    }
+
+    @Test
+    void getPage_readsOnePageOfPaths() throws IOException {
+        List<FolderDiff.Entry> changes = new ArrayList<>();
+        for (int i = 0; i < Changelog.PAGE_SIZE * 2 + 5; i++) {
+            changes.add(new FolderDiff.Entry("file" + i, FolderDiff.Entry.Type.NEW));
+        }
+        File file = new File(folder, "changelog.xml");
+        ChangelogSet.XMLSerializer serializer = new ChangelogSet.XMLSerializer();
+        serializer.save(changes, file);
+        Changelog changelog = serializer.parse((Run<?, ?>) null, file).iterator().next();
+
+        Changelog.Page page = changelog.getPage("3");
+        assertEquals(3, page.getNumber());
+        assertEquals(3, page.getCount());
+        assertEquals(5, page.getFiles().size());
+        assertEquals("file" + Changelog.PAGE_SIZE * 2, page.getFiles().get(0).getValue());
+        assertEquals(1, changelog.getPage("x").getNumber());
+        assertEquals(3, changelog.getPage("9").getNumber());
+        assertEquals(Changelog.PAGE_SIZE, changelog.getPage(null).getFiles().size());
+    }
+
+    @Test
+    void parse_compactChangelog_sameAsXmlAndSmaller() throws IOException {
+        List<FolderDiff.Entry> changes = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            changes.add(new FolderDiff.Entry("module" + i % 3 + "/src/File" + i + ".java", FolderDiff.Entry.Type.values()[i % 3]));
+        }
+        File xml = new File(folder, "changelog.xml");
+        File compact = new File(folder, "changelog.bin");
+        ChangelogSet.XMLSerializer serializer = new ChangelogSet.XMLSerializer();
+        serializer.save(changes, xml);
+        serializer.saveCompact(changes, compact);
+
+        ChangelogSet set = serializer.parse((Run<?, ?>) null, compact);
+
+        assertEquals(serializer.parse((Run<?, ?>) null, xml), set);
+        Changelog changelog = set.iterator().next();
+        assertEquals("1000 new files, 1000 files modified, 1000 files deleted", changelog.getMsg());
+        assertEquals("module" + (Changelog.PAGE_SIZE + 2) % 3 + "/src/File" + (Changelog.PAGE_SIZE + 2) + ".java",
+                changelog.getPage("2").getFiles().get(2).getValue());
+        assertTrue(compact.length() * 5 < xml.length(), compact.length() + " bytes instead of " + xml.length());
+    }
+
+    @Test
+    void iterate_inChunksAndStoppedEarly_allPathsReadAndNoFileLeftOpen() throws IOException {
+        File fds = new File("/proc/self/fd");
+        assumeTrue(fds.isDirectory(), "open files cannot be counted");
+        List<FolderDiff.Entry> changes = new ArrayList<>();
+        for (int i = 0; i < Changelog.PAGE_SIZE * 5; i++) {
+            changes.add(new FolderDiff.Entry("file" + i, FolderDiff.Entry.Type.values()[i % 3]));
+        }
+        File xml = new File(folder, "changelog.xml");
+        File compact = new File(folder, "changelog.bin");
+        ChangelogSet.XMLSerializer serializer = new ChangelogSet.XMLSerializer();
+        serializer.save(changes, xml);
+        serializer.saveCompact(changes, compact);
+
+        for (File file : new File[] { xml, compact }) {
+            Changelog changelog = serializer.parse((Run<?, ?>) null, file).iterator().next();
+            List<Changelog.Path> paths = (List<Changelog.Path>) changelog.getAffectedFiles();
+            assertEquals("file0", paths.iterator().next().getValue());
+            assertFalse(isOpen(fds, file));
+
+            ListIterator<Changelog.Path> it = paths.listIterator(Changelog.PAGE_SIZE + 1);
+            for (int i = Changelog.PAGE_SIZE + 1; i < changes.size(); i++) {
+                assertEquals(i, it.nextIndex());
+                Changelog.Path path = it.next();
+                assertEquals("file" + i, path.getValue());
+                assertSame(changelog, path.getChangelog());
+            }
+            assertFalse(it.hasNext());
+            assertFalse(isOpen(fds, file));
+        }
+    }
+
+    private static boolean isOpen(File fds, File file) throws IOException {
+        for (File fd : fds.listFiles()) {
+            try {
+                if (Files.readSymbolicLink(fd.toPath()).equals(file.toPath().toAbsolutePath())) {
+                    return true;
+                }
+            } catch (IOException e) {
+                // closed meanwhile
+            }
+        }
+        return false;
+    }
+
+    @Test
+    void parse_cappedChangelog_firstPathsAndExactCountsPerDirectory() throws IOException {
+        List<FolderDiff.Entry> changes = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            changes.add(new FolderDiff.Entry("lib/a" + i + ".jar", FolderDiff.Entry.Type.NEW));
+        }
+        for (int i = 0; i < 300; i++) {
+            changes.add(new FolderDiff.Entry("src\\b" + i + ".c", FolderDiff.Entry.Type.values()[i % 3]));
+        }
+        changes.add(new FolderDiff.Entry("README", FolderDiff.Entry.Type.MODIFIED));
+        File xml = new File(folder, "changelog.xml");
+        File compact = new File(folder, "changelog.bin");
+        ChangelogSet.XMLSerializer serializer = new ChangelogSet.XMLSerializer();
+        serializer.save(changes, xml, 100);
+        serializer.saveCompact(changes, compact, 100);
+
+        for (File file : new File[] { xml, compact }) {
+            Changelog changelog = serializer.parse((Run<?, ?>) null, file).iterator().next();
+            assertEquals("600 new files, 101 files modified, 100 files deleted", changelog.getMsg());
+            assertEquals(100, changelog.getAffectedPaths().size());
+            assertEquals(801, changelog.getFileCount());
+            assertEquals("lib/a99.jar", changelog.getPage(null).getFiles().get(99).getValue());
+            List<Changelog.Rollup> rollup = changelog.getRollup();
+            assertEquals(3, rollup.size());
+            assertEquals(".", rollup.get(0).getName());
+            assertEquals(1, rollup.get(0).getModified());
+            assertEquals("lib", rollup.get(1).getName());
+            assertEquals(500, rollup.get(1).getAdded());
+            assertEquals("src", rollup.get(2).getName());
+            assertEquals(100, rollup.get(2).getAdded());
+            assertEquals(100, rollup.get(2).getModified());
+            assertEquals(100, rollup.get(2).getDeleted());
+        }
+    }
+
+    @Test
+    void parse_belowLimit_allPathsAndNoRollup() throws IOException {
+        List<FolderDiff.Entry> changes = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            changes.add(new FolderDiff.Entry("dir/file" + i, FolderDiff.Entry.Type.NEW));
+        }
+        File file = new File(folder, "changelog.bin");
+        ChangelogSet.XMLSerializer serializer = new ChangelogSet.XMLSerializer();
+        serializer.saveCompact(changes, file, 10);
+
+        Changelog changelog = serializer.parse((Run<?, ?>) null, file).iterator().next();
+        assertNull(changelog.getRollup());
+        assertEquals(10, changelog.getFileCount());
+        assertEquals("10 new files", changelog.getMsg());
+    }
+
+    @Test
+    void parse_noChanges_emptySet() throws IOException {
+        File file = new File(folder, "changelog.xml");
+        ChangelogSet.XMLSerializer serializer = new ChangelogSet.XMLSerializer();
+        serializer.save(new ArrayList<>(), file);
+        assertTrue(serializer.parse((Run<?, ?>) null, file).isEmptySet());
+
+        serializer.saveCompact(new ArrayList<>(), file);
+        assertTrue(serializer.parse((Run<?, ?>) null, file).isEmptySet());
+    }
+}
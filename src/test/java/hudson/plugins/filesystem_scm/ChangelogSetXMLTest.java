@@ -10,14 +10,16 @@ import java.util.ArrayList;
 import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
 
 class ChangelogSetXMLTest {
 
+    private List<FolderDiff.Entry> changes;
     private ChangelogSet changeLogSet;
 
     @BeforeEach
     void setUp() {
-        List<FolderDiff.Entry> changes = new ArrayList<>();
+        changes = new ArrayList<>();
         changes.add(new FolderDiff.Entry("c:\\tmp\\del.java", FolderDiff.Entry.Type.DELETED));
         changes.add(new FolderDiff.Entry("c:\\tmp\\add.java", FolderDiff.Entry.Type.NEW));
         changes.add(new FolderDiff.Entry("c:\\tmp\\edit.java", FolderDiff.Entry.Type.MODIFIED));
@@ -36,4 +38,20 @@ class ChangelogSetXMLTest {
 
         assertEquals(changeLogSet, out);
     }
+
+    @Test
+    void testStreamedToXML() throws IOException {
+        ChangelogSet.XMLSerializer handler = new ChangelogSet.XMLSerializer();
+        File tmp = File.createTempFile("xstream", null);
+
+        handler.save(changes, tmp);
+
+        ChangelogSet out = handler.parse((Run<?, ?>) null, tmp);
+        assertEquals(changeLogSet, out);
+        Changelog changelog = out.iterator().next();
+        assertSame(out, changelog.getParent());
+        for (Changelog.Path path : changelog.getAffectedFiles()) {
+            assertSame(changelog, path.getChangelog());
+        }
+    }
 }
@@ -0,0 +1,148 @@
+package hudson.plugins.filesystem_scm;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.SerializationUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CheckoutManifestTest {
+
+    @TempDir
+    private File folder;
+
+    @Test
+    void checkOut_previousManifestAndMarker_onlyChangedFilesWritten() throws IOException {
+        File src = new File(folder, "src");
+        File workspace = new File(folder, "ws");
+        write(new File(src, "a.txt"), "a");
+        write(new File(src, "dir/b.txt"), "b");
+
+        assertEquals(2, checkOut(src, workspace, false).size());
+        assertTrue(new File(folder, "ws@tmp/" + CheckoutManifest.MARKER_BASENAME).exists());
+
+        // changed by a build, not looked at by an incremental checkout
+        Files.delete(new File(workspace, "dir/b.txt").toPath());
+        write(new File(src, "c.txt"), "c");
+        List<FolderDiff.Entry> changes = checkOut(src, workspace, true);
+
+        assertEquals(Arrays.asList(new FolderDiff.Entry("c.txt", FolderDiff.Entry.Type.NEW)), changes);
+        assertEquals("c", read(new File(workspace, "c.txt")));
+        assertFalse(new File(workspace, "dir/b.txt").exists());
+    }
+
+    @Test
+    void checkOut_workspaceWiped_workspaceVerified() throws IOException {
+        File src = new File(folder, "src");
+        File workspace = new File(folder, "ws");
+        write(new File(src, "a.txt"), "a");
+        write(new File(src, "dir/b.txt"), "b");
+        checkOut(src, workspace, false);
+
+        FileUtils.deleteDirectory(workspace);
+        List<FolderDiff.Entry> changes = checkOut(src, workspace, true);
+
+        assertEquals(2, changes.size());
+        assertEquals("b", read(new File(workspace, "dir/b.txt")));
+    }
+
+    @Test
+    void pollChange_manifestKeptNextToWorkspace_workspaceNotRead() throws IOException {
+        File src = new File(folder, "src");
+        File workspace = new File(folder, "ws");
+        write(new File(src, "a.txt"), "a");
+
+        List<FolderDiff.Entry> changes = checkOut(src, workspace, false);
+        assertEquals(1, changes.size());
+        File tempDir = new File(folder, "ws@tmp");
+        assertEquals(1, CheckoutManifest.load(tempDir).size());
+
+        FileUtils.deleteDirectory(workspace);
+        assertFalse(pollChange(src, workspace));
+        write(new File(src, "b.txt"), "b");
+        assertTrue(pollChange(src, workspace));
+
+        Files.delete(new File(src, "b.txt").toPath());
+        CheckoutManifest.delete(tempDir);
+        assertNull(CheckoutManifest.load(tempDir));
+        assertTrue(pollChange(src, workspace));
+    }
+
+    private boolean pollChange(File src, File workspace) throws IOException {
+        RemoteFolderDiff.PollChange pollChange = new RemoteFolderDiff.PollChange();
+        pollChange.setSrcPath(src.getAbsolutePath());
+        pollChange.setUseManifest(true);
+        // as sent to an agent
+        return SerializationUtils.clone(pollChange).invoke(workspace, null);
+    }
+
+    @Test
+    void checkOut_fingerprintReturned_storedAsRevisionState() throws IOException {
+        File src = new File(folder, "src");
+        File workspace = new File(folder, "ws");
+        write(new File(src, "a.txt"), "a");
+        write(new File(src, "dir/b.txt"), "b");
+
+        String fingerprint = EntryList.getFingerprint(checkOut(src, workspace, false));
+        RemoteFolderDiff.Fingerprint callable = new RemoteFolderDiff.Fingerprint();
+        callable.setSrcPath(src.getAbsolutePath());
+        assertEquals(callable.invoke(workspace, null), fingerprint);
+
+        File stateFile = FilesystemRevisionState.getFile(folder);
+        new FilesystemRevisionState(callable.getConfigKey(), fingerprint).save(stateFile);
+        FilesystemRevisionState state = FilesystemRevisionState.load(stateFile);
+        assertEquals(callable.getConfigKey(), state.getConfigKey());
+        assertEquals(fingerprint, state.getFingerprint());
+        assertNull(FilesystemRevisionState.load(new File(folder, "missing")));
+    }
+
+    @Test
+    void isMarked_otherManifest_false() throws IOException {
+        File workspace = new File(folder, "ws");
+        File tempDir = new File(folder, "ws@tmp");
+        Files.createDirectories(workspace.toPath());
+        write(new File(folder, "a.txt"), "a");
+        CheckoutManifest manifest = new CheckoutManifest("key");
+        manifest.put("a.txt", Files.readAttributes(new File(folder, "a.txt").toPath(), BasicFileAttributes.class));
+        CheckoutManifest other = new CheckoutManifest("key");
+
+        assertFalse(manifest.isMarked(workspace, tempDir));
+        manifest.writeMarker(workspace, tempDir);
+        assertTrue(manifest.isMarked(workspace, tempDir));
+        assertFalse(other.isMarked(workspace, tempDir));
+        CheckoutManifest.delete(tempDir);
+        assertFalse(manifest.isMarked(workspace, tempDir));
+    }
+
+    /**
+     * Checks out like {@link FSSCM} does, with the serialized callable, and
+     * returns the changes as sent back to the controller.
+     */
+    private List<FolderDiff.Entry> checkOut(File src, File workspace, boolean incremental) throws IOException {
+        RemoteFolderDiff.CheckOut callable = new RemoteFolderDiff.CheckOut();
+        callable.setSrcPath(src.getAbsolutePath());
+        callable.setUseManifest(incremental);
+        return SerializationUtils.clone((EntryList) SerializationUtils.clone(callable).invoke(workspace, null));
+    }
+
+    private static void write(File file, String content) throws IOException {
+        Files.createDirectories(file.getParentFile().toPath());
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+}
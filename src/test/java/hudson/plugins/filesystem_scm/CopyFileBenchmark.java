@@ -0,0 +1,74 @@
+package hudson.plugins.filesystem_scm;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import hudson.FilePath;
+import jenkins.benchmark.jmh.JmhBenchmark;
+
+/**
+ * Compares copying a file through {@link FilePath#copyToWithPermission(FilePath)}
+ * with {@link LocalFileCopy}.
+ */
+@JmhBenchmark
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class CopyFileBenchmark {
+
+    @Param({ "4096", "1048576", "1073741824" })
+    public long size;
+
+    private File folder;
+    private File src;
+    private File dst;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        folder = Files.createTempDirectory("fsscm-copy").toFile();
+        src = new File(folder, "src.bin");
+        dst = new File(folder, "dst.bin");
+        byte[] chunk = new byte[(int) Math.min(size, 1024 * 1024)];
+        new Random(42).nextBytes(chunk);
+        try (OutputStream out = Files.newOutputStream(src.toPath())) {
+            for (long written = 0; written < size; written += chunk.length) {
+                out.write(chunk, 0, (int) Math.min(chunk.length, size - written));
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(folder);
+    }
+
+    @Benchmark
+    public void filePath() throws IOException, InterruptedException {
+        new FilePath(src).copyToWithPermission(new FilePath(dst));
+    }
+
+    @Benchmark
+    public void transferTo() throws IOException {
+        LocalFileCopy.copy(src, dst);
+    }
+}
@@ -0,0 +1,67 @@
+package hudson.plugins.filesystem_scm;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DigestCacheTest {
+
+    private static final long ONE_MINUTE = 1000 * 60;
+
+    @TempDir
+    private File folder;
+
+    @Test
+    void digest_savedAndLoaded_cachedDigestUsedUntilMetadataChanges() throws IOException {
+        File file = write("file.txt", "abc", System.currentTimeMillis() - ONE_MINUTE);
+        File cacheFile = DigestCache.getFile(new File(folder, "ws@tmp"));
+        DigestCache cache = DigestCache.load(cacheFile);
+        long digest = cache.digest(file, attributes(file));
+        assertEquals(DigestCache.digest(file), digest);
+        cache.save(true);
+        assertTrue(cacheFile.exists());
+
+        // same metadata, other content: the cached digest is returned
+        long lastModified = file.lastModified();
+        Files.write(file.toPath(), "abd".getBytes(StandardCharsets.UTF_8));
+        assertTrue(file.setLastModified(lastModified));
+        assertEquals(digest, DigestCache.load(cacheFile).digest(file, attributes(file)));
+
+        assertTrue(file.setLastModified(lastModified - ONE_MINUTE));
+        assertNotEquals(digest, DigestCache.load(cacheFile).digest(file, attributes(file)));
+    }
+
+    @Test
+    void digest_recentlyModifiedFile_notCached() throws IOException {
+        File file = write("file.txt", "abc", System.currentTimeMillis());
+        File cacheFile = DigestCache.getFile(new File(folder, "ws@tmp"));
+        DigestCache cache = DigestCache.load(cacheFile);
+        long digest = cache.digest(file, attributes(file));
+
+        // changed within the timestamp granularity
+        long lastModified = file.lastModified();
+        Files.write(file.toPath(), "abd".getBytes(StandardCharsets.UTF_8));
+        assertTrue(file.setLastModified(lastModified));
+        assertNotEquals(digest, cache.digest(file, attributes(file)));
+    }
+
+    private File write(String name, String content, long lastModified) throws IOException {
+        File file = new File(folder, name);
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        assertTrue(file.setLastModified(lastModified));
+        return file;
+    }
+
+    private static BasicFileAttributes attributes(File file) throws IOException {
+        return Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+    }
+}
@@ -0,0 +1,42 @@
+package hudson.plugins.filesystem_scm;
+
+import org.apache.commons.lang3.SerializationUtils;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EntryListTest {
+
+    @Test
+    void serialization_fewEntries_keepsNamesTypesAndOrder() {
+        List<FolderDiff.Entry> entries = new ArrayList<>();
+        entries.add(new FolderDiff.Entry("b/c.txt", FolderDiff.Entry.Type.DELETED));
+        entries.add(new FolderDiff.Entry("a.txt", FolderDiff.Entry.Type.NEW));
+        entries.add(new FolderDiff.Entry("b/cd.txt", FolderDiff.Entry.Type.MODIFIED));
+        entries.add(new FolderDiff.Entry("", FolderDiff.Entry.Type.NEW));
+        entries.add(new FolderDiff.Entry("b/c.txt", FolderDiff.Entry.Type.NEW));
+
+        List<FolderDiff.Entry> copy = SerializationUtils.clone(new EntryList(entries));
+
+        assertEquals(entries, copy);
+    }
+
+    @Test
+    void serialization_manyEntries_compressedAndSmallerThanObjects() {
+        ArrayList<FolderDiff.Entry> entries = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            entries.add(new FolderDiff.Entry("module" + i % 10 + "/src/main/java/org/example/Class" + i + ".java",
+                    FolderDiff.Entry.Type.values()[i % 3]));
+        }
+
+        byte[] bytes = SerializationUtils.serialize(new EntryList(entries));
+
+        assertEquals(entries, SerializationUtils.deserialize(bytes));
+        int objects = SerializationUtils.serialize(entries).length;
+        assertTrue(bytes.length * 10 < objects, bytes.length + " bytes instead of " + objects);
+    }
+}
@@ -5,7 +5,7 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 
 import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -21,12 +21,12 @@ class FSSCMTest {
     private final List<Entry> list = new ArrayList<>();
 
     @Test
-    void processChangelog_nullChangelogFile_NoException() throws FileNotFoundException {
+    void processChangelog_nullChangelogFile_NoException() throws IOException {
         fsscm.processChangelog(null, null, list);
     }
 
     @Test
-    void processChangelog_ChangelogFile_createdChangelogFile() throws FileNotFoundException {
+    void processChangelog_ChangelogFile_createdChangelogFile() throws IOException {
         File changeLogFile = new File(testFolder, "changelog.xml");
         assertFalse(changeLogFile.exists());
         fsscm.processChangelog(null, changeLogFile, list);
@@ -0,0 +1,96 @@
+package hudson.plugins.filesystem_scm;
+
+import java.io.File;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.filefilter.AndFileFilter;
+import org.apache.commons.io.filefilter.IOFileFilter;
+import org.apache.commons.io.filefilter.NotFileFilter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import jenkins.benchmark.jmh.JmhBenchmark;
+
+/**
+ * Compares filtering file names through one {@link SimpleAntWildcardFilter}
+ * per wildcard with {@link WildcardMatcher}.
+ */
+@JmhBenchmark
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class FilterBenchmark {
+
+    private static final String[] EXTENSIONS = { "java", "class", "txt", "xml", "gif", "png", "jar", "properties" };
+
+    @Param({ "5", "50" })
+    public int wildcards;
+
+    private String[] names;
+    private File[] files;
+    private IOFileFilter chain;
+    private WildcardMatcher matcher;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+        String[] patterns = new String[wildcards];
+        for (int i = 0; i < wildcards; i++) {
+            switch (i % 4) {
+                case 0 -> patterns[i] = "**/*." + EXTENSIONS[i % EXTENSIONS.length] + i;
+                case 1 -> patterns[i] = "**/dir" + i + "/**";
+                case 2 -> patterns[i] = "module" + i + "/target/**";
+                default -> patterns[i] = "**/file" + i + "?.*";
+            }
+        }
+        AndFileFilter and = new AndFileFilter();
+        for (String pattern : patterns) {
+            and.addFileFilter(new NotFileFilter(new SimpleAntWildcardFilter(pattern)));
+        }
+        chain = and;
+
+        // files below a folder that does not exist, so the chain pays no disk access
+        File root = new File(System.getProperty("java.io.tmpdir"), "fsscm-filter-" + random.nextLong());
+        matcher = WildcardMatcher.compile(false, patterns, root);
+        names = new String[10_000];
+        files = new File[names.length];
+        for (int i = 0; i < names.length; i++) {
+            StringBuilder name = new StringBuilder();
+            int depth = 1 + random.nextInt(6);
+            for (int d = 0; d < depth; d++) {
+                name.append("dir").append(random.nextInt(60)).append('/');
+            }
+            name.append("file").append(random.nextInt(1000)).append('.')
+                    .append(EXTENSIONS[random.nextInt(EXTENSIONS.length)]);
+            names[i] = name.toString();
+            files[i] = new File(root, names[i]);
+        }
+    }
+
+    @Benchmark
+    public void filterChain(Blackhole blackhole) {
+        for (File file : files) {
+            blackhole.consume(chain.accept(file));
+        }
+    }
+
+    @Benchmark
+    public void wildcardMatcher(Blackhole blackhole) {
+        for (int i = 0; i < names.length; i++) {
+            blackhole.consume(matcher.accept(names[i], files[i]));
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package hudson.plugins.filesystem_scm;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import jenkins.benchmark.jmh.JmhBenchmark;
+
+/**
+ * Compares a source tree with a workspace holding the previous checkout: one
+ * file in ten deleted from the source, one in ten modified. Nothing is copied
+ * or deleted.
+ */
+@JmhBenchmark
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class FolderDiffBenchmark {
+
+    @Param({ "DEEP", "WIDE", "MANY_SMALL", "FEW_LARGE" })
+    public TreeShape shape;
+
+    private File folder;
+    private File src;
+    private File dst;
+    private Set<String> allowDeleteList;
+    private long lastBuildTime;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        folder = Files.createTempDirectory("fsscm-diff").toFile();
+        src = new File(folder, "src");
+        dst = new File(folder, "dst");
+        List<String> names = shape.create(src, 42);
+        FileUtils.copyDirectory(src, dst, true);
+        allowDeleteList = new HashSet<>();
+        // the previous checkout counts as newer than every file, except the modified ones
+        lastBuildTime = System.currentTimeMillis() + 60_000;
+        long modified = lastBuildTime + 60_000;
+        for (int i = 0; i < names.size(); i++) {
+            File file = new File(src, names.get(i));
+            allowDeleteList.add(names.get(i).replace('/', File.separatorChar));
+            if (i % 10 == 0) {
+                Files.delete(file.toPath());
+            } else if (i % 10 == 1) {
+                file.setLastModified(modified);
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(folder);
+    }
+
+    @Benchmark
+    public List<FolderDiff.Entry> getNewOrModifiedFiles() throws IOException {
+        return new QuietDiff(src, dst).getNewOrModifiedFiles(lastBuildTime, false);
+    }
+
+    @Benchmark
+    public List<FolderDiff.Entry> getFiles2Delete() throws IOException {
+        QuietDiff diff = new QuietDiff(src, dst);
+        diff.setAllowDeleteList(allowDeleteList);
+        return diff.getFiles2Delete(false);
+    }
+
+    private static class QuietDiff extends FolderDiffFake<Object> {
+
+        QuietDiff(File src, File dst) {
+            super(src.getAbsolutePath(), dst.getAbsolutePath());
+        }
+
+        @Override
+        protected void log(String msg) {
+        }
+    }
+}
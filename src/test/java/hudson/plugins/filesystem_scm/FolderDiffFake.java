@@ -3,6 +3,7 @@ package hudson.plugins.filesystem_scm;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import org.apache.commons.lang3.tuple.ImmutablePair;
@@ -13,7 +14,7 @@ public class FolderDiffFake<T> extends FolderDiff<T> {
     List<File> deleteFiles;
 
     public FolderDiffFake(String sourcePath, String destinationPath) {
-        copyFilePairs = new ArrayList<>();
+        copyFilePairs = Collections.synchronizedList(new ArrayList<>());
         deleteFiles = new ArrayList<>();
         this.setDstPath(destinationPath);
         this.setSrcPath(sourcePath);
@@ -3,20 +3,27 @@ package hudson.plugins.filesystem_scm;
 import hudson.plugins.filesystem_scm.FolderDiff.Entry;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang.SystemUtils;
+import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -83,6 +90,21 @@ class FolderDiffTest {
         assertMarkAsDelete(expected, src, dst);
     }
 
+    @Test
+    void getFiles2Delete_largeTreeWithRemovedSrcFiles_onlyRemovedFilesMarkedForDeletion()
+            throws IOException, InterruptedException {
+        Set<FolderDiff.Entry> expected = new HashSet<>();
+        for (int i = 0; i < 5000; i++) {
+            String path = createFile(src, "large", "dir" + (i % 50), "file" + i + ".txt");
+            createFile(dst, path);
+            if (i % 10 == 0) {
+                Files.delete(new File(src, path).toPath());
+                expected.add(new Entry(path, FolderDiff.Entry.Type.DELETED));
+            }
+        }
+        assertMarkAsDelete(expected, src, dst);
+    }
+
     @Test
     void getFilesNewOrModifiedFiles_noNewOrModifiedFilesLastBuildTimeNow_nothing2Add() throws IOException {
         assertMarkAsNewOrModified(new HashSet<>(), currentTestExecutionTime, src, dst);
@@ -156,6 +178,260 @@ class FolderDiffTest {
         assertMarkAsNewOrModified(new HashSet<>(), actualResult, diff);
     }
 
+    @Test
+    void getChanges_newModifiedAndDeletedSrcFiles_allChangesFoundInOnePass() throws IOException {
+        String newFilePath = createFile(src, "Folder", "NewFile.txt");
+        assertTrue((new File(src, folderFilePath)).setLastModified(currentTestExecutionTime + ONE_MINUTE));
+        Files.delete(new File(src, rootFilePath).toPath());
+
+        Set<FolderDiff.Entry> expected = new HashSet<>();
+        expected.add(new Entry(newFilePath, FolderDiff.Entry.Type.NEW));
+        expected.add(new Entry(folderFilePath, FolderDiff.Entry.Type.MODIFIED));
+        expected.add(new Entry(rootFilePath, FolderDiff.Entry.Type.DELETED));
+
+        FolderDiffFake<File> diff = getFolderDiff(src, dst);
+        List<FolderDiff.Entry> actualResult = diff.getChanges(currentTestExecutionTime + ONE_MINUTE, false);
+        assertEquals(expected, new HashSet<>(actualResult));
+        assertEquals(2, diff.copyFilePairs.size());
+        assertEquals(1, diff.deleteFiles.size());
+    }
+
+    @Test
+    void getChanges_everyEntryStatedOnce() throws IOException {
+        FolderDiffFake<File> diff = getFolderDiff(src, dst);
+        diff.getChanges(currentTestExecutionTime, false);
+
+        // both roots, then Folder, subFolder and three files on each side
+        assertEquals(2 + 2 * 5, diff.getAttributesRead());
+        assertEquals(2 * 3, diff.getDirectoriesListed());
+    }
+
+    @Test
+    void getChanges_parallelScan_sameEntriesInSameOrderAsSequentialScan() throws IOException {
+        for (int i = 0; i < 500; i++) {
+            String path = createFile(src, "wide", "dir" + (i % 25), "sub" + (i % 3), "file" + i + ".txt");
+            if (i % 7 == 0) {
+                createFile(dst, path);
+            }
+            if (i % 11 == 0) {
+                createFile(dst, "wide", "dir" + (i % 25), "gone" + i + ".txt");
+            }
+        }
+
+        List<FolderDiff.Entry> sequential = getFolderDiff(src, dst).getChanges(currentTestExecutionTime, false);
+        FolderDiffFake<File> diff = getFolderDiff(src, dst);
+        diff.setScanThreads(4);
+        List<FolderDiff.Entry> parallel = diff.getChanges(currentTestExecutionTime, false);
+
+        assertEquals(sequential, parallel);
+        assertEquals(diff.getNewCount() + diff.getModifiedCount(), diff.copyFilePairs.size());
+        assertEquals(diff.getDeletedCount(), diff.deleteFiles.size());
+    }
+
+    @Test
+    void isChangedSince_manifestRoundTrip_onlyChangedSourceDetected() throws IOException {
+        FolderDiffFake<File> diff = getFolderDiff(src, dst);
+        CheckoutManifest recorded = new CheckoutManifest(diff.getConfigKey());
+        diff.getChanges(currentTestExecutionTime, false, recorded);
+        assertEquals(3, recorded.size());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        recorded.write(out);
+        CheckoutManifest manifest = CheckoutManifest.read(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(diff.getConfigKey(), manifest.getConfigKey());
+        assertEquals(3, manifest.size());
+
+        // nothing changed, the workspace is not needed at all
+        FileUtils.deleteDirectory(dst);
+        assertFalse(getFolderDiff(src, dst).isChangedSince(manifest, true));
+
+        File folderFile = new File(src, folderFilePath);
+        assertTrue(folderFile.setLastModified(folderFile.lastModified() + ONE_MINUTE));
+        assertTrue(getFolderDiff(src, dst).isChangedSince(manifest, true));
+        assertTrue(folderFile.setLastModified(manifest.get(folderFilePath).getLastModified()));
+        assertFalse(getFolderDiff(src, dst).isChangedSince(manifest, true));
+
+        Files.delete(new File(src, rootFilePath).toPath());
+        assertFalse(getFolderDiff(src, dst).isChangedSince(manifest, false));
+        assertTrue(getFolderDiff(src, dst).isChangedSince(manifest, true));
+    }
+
+    @Test
+    void getFingerprint_sameAsManifestAndChangesWithSource() throws IOException {
+        createFile(src, "Folder", "subFolder", "deeper", "deeperFile.txt");
+        FolderDiffFake<File> diff = getFolderDiff(src, dst);
+        CheckoutManifest manifest = new CheckoutManifest(diff.getConfigKey());
+        diff.getChanges(currentTestExecutionTime, false, manifest);
+
+        String fingerprint = getFolderDiff(src, dst).getFingerprint();
+        assertEquals(manifest.getFingerprint(), fingerprint);
+        FolderDiffFake<File> parallel = getFolderDiff(src, dst);
+        parallel.setScanThreads(4);
+        assertEquals(fingerprint, parallel.getFingerprint());
+
+        File subFolderFile = new File(src, subfolderFilePath);
+        assertTrue(subFolderFile.setLastModified(subFolderFile.lastModified() + ONE_MINUTE));
+        assertNotEquals(fingerprint, getFolderDiff(src, dst).getFingerprint());
+    }
+
+    @Test
+    void getChangesSince_onlyChangesAgainstManifestWrittenWithoutReadingWorkspace() throws IOException {
+        CheckoutManifest previous = new CheckoutManifest(getFolderDiff(src, dst).getConfigKey());
+        getFolderDiff(src, dst).getChanges(currentTestExecutionTime, false, previous);
+        String newFilePath = createFile(src, "Folder", "New.txt");
+        File rootFile = new File(src, rootFilePath);
+        assertTrue(rootFile.setLastModified(rootFile.lastModified() + ONE_MINUTE));
+        Files.delete(new File(src, subfolderFilePath).toPath());
+        // a workspace file changed by a build is not looked at
+        FileUtils.deleteDirectory(dst);
+
+        FolderDiffFake<File> diff = getFolderDiff(src, dst);
+        diff.setScanThreads(4);
+        CheckoutManifest manifest = new CheckoutManifest(diff.getConfigKey());
+        List<FolderDiff.Entry> changes = diff.getChangesSince(previous, manifest);
+
+        assertEquals(Arrays.asList(new Entry(newFilePath, Entry.Type.NEW),
+                new Entry(subfolderFilePath, Entry.Type.DELETED), new Entry(rootFilePath, Entry.Type.MODIFIED)),
+                changes);
+        assertEquals(2, diff.copyFilePairs.size());
+        assertEquals(Arrays.asList(new File(dst, subfolderFilePath)), diff.deleteFiles);
+        assertEquals(3, manifest.size());
+        assertFalse(getFolderDiff(src, dst).isChangedSince(manifest, true));
+    }
+
+    @Test
+    void comparePaths_sameOrderAsWalker() {
+        String sep = File.separator;
+        assertTrue(FolderDiff.comparePaths("a" + sep + "x", "a.txt") < 0);
+        assertTrue(FolderDiff.comparePaths("a" + sep + "b" + sep + "c", "a" + sep + "b.txt") < 0);
+        assertTrue(FolderDiff.comparePaths("B", "a") < 0);
+        assertEquals(0, FolderDiff.comparePaths("a" + sep + "b", "a" + sep + "b"));
+    }
+
+    @Test
+    void getChanges_parallelCopy_allNewFilesCopied() throws IOException {
+        for (int i = 0; i < 500; i++) {
+            createFile(src, "wide", "dir" + (i % 25), "file" + i + ".txt");
+        }
+
+        FolderDiffFake<File> diff = getFolderDiff(src, dst);
+        diff.setCopyThreads(4);
+        List<FolderDiff.Entry> actualResult = diff.getChanges(currentTestExecutionTime, false);
+
+        assertEquals(500, actualResult.size());
+        Set<File> copied = new HashSet<>();
+        for (ImmutablePair<File, File> pair : diff.copyFilePairs) {
+            copied.add(pair.getLeft());
+        }
+        assertEquals(500, copied.size());
+    }
+
+    @Test
+    void getChanges_parallelCopyFails_otherFilesCopiedAndExceptionThrown() throws IOException {
+        for (int i = 0; i < 100; i++) {
+            createFile(src, "wide", "file" + i + ".txt");
+        }
+        final File broken = new File(src, TestUtils.createPlatformDependentPath("wide", "file42.txt"));
+
+        FolderDiffFake<File> diff = new FolderDiffFake<File>(src.getAbsolutePath(), dst.getAbsolutePath()) {
+            @Override
+            protected void copyFile(File srcFile, File dstFile) throws IOException {
+                if (srcFile.equals(broken)) {
+                    throw new IOException("disk full");
+                }
+                super.copyFile(srcFile, dstFile);
+            }
+        };
+        diff.setCopyThreads(4);
+
+        IOException e = assertThrows(IOException.class, () -> diff.getChanges(currentTestExecutionTime, false));
+        assertEquals("disk full", e.getCause().getMessage());
+        assertEquals(99, diff.copyFilePairs.size());
+    }
+
+    @Test
+    void getChanges_contentCompare_touchedFileIgnoredAndSameTimeChangeFound() throws IOException {
+        File srcFile = new File(src, folderFilePath);
+        File dstFile = new File(dst, folderFilePath);
+        Files.write(srcFile.toPath(), "abc".getBytes(StandardCharsets.UTF_8));
+        Files.write(dstFile.toPath(), "abc".getBytes(StandardCharsets.UTF_8));
+        long old = currentTestExecutionTime - ONE_MINUTE;
+        assertTrue(dstFile.setLastModified(old));
+        assertTrue(srcFile.setLastModified(currentTestExecutionTime + ONE_MINUTE));
+        for (String path : new String[] { rootFilePath, subfolderFilePath }) {
+            assertTrue(new File(src, path).setLastModified(old));
+            assertTrue(new File(dst, path).setLastModified(old));
+        }
+
+        FolderDiffFake<File> diff = getFolderDiff(src, dst);
+        diff.setContentCompare(true);
+        assertEquals(0, diff.getChanges(currentTestExecutionTime, false).size());
+
+        // same size and time, only the content differs
+        Files.write(srcFile.toPath(), "abd".getBytes(StandardCharsets.UTF_8));
+        assertTrue(srcFile.setLastModified(old));
+        assertTrue(getFolderDiff(src, dst).getChanges(currentTestExecutionTime, false).isEmpty());
+        diff = getFolderDiff(src, dst);
+        diff.setContentCompare(true);
+        Set<FolderDiff.Entry> expected = new HashSet<>();
+        expected.add(new Entry(folderFilePath, FolderDiff.Entry.Type.MODIFIED));
+        assertEquals(expected, new HashSet<>(diff.getChanges(currentTestExecutionTime, false)));
+    }
+
+    @Test
+    void getChanges_contentCompareHardLinkEditedInPlace_comparedWithLastCheckout() throws IOException {
+        File srcFile = new File(src, folderFilePath);
+        File dstFile = new File(dst, folderFilePath);
+        Files.write(srcFile.toPath(), "abc".getBytes(StandardCharsets.UTF_8));
+        Files.delete(dstFile.toPath());
+        Files.createLink(dstFile.toPath(), srcFile.toPath());
+        FolderDiffFake<File> diff = getFolderDiff(src, dst);
+        diff.setContentCompare(true);
+        CheckoutManifest manifest = diff.createManifest();
+        diff.getChanges(currentTestExecutionTime, false, manifest);
+        Entry modified = new Entry(folderFilePath, Entry.Type.MODIFIED);
+
+        diff = getFolderDiff(src, dst);
+        diff.setContentCompare(true);
+        diff.setLinkedBaseline(manifest);
+        assertFalse(diff.getChanges(currentTestExecutionTime, false).contains(modified));
+
+        // the workspace file changes with the source, same size
+        Files.write(srcFile.toPath(), "abd".getBytes(StandardCharsets.UTF_8));
+        diff = getFolderDiff(src, dst);
+        diff.setContentCompare(true);
+        diff.setLinkedBaseline(manifest);
+        assertTrue(diff.getChanges(currentTestExecutionTime, false).contains(modified));
+        // nothing to compare with
+        diff = getFolderDiff(src, dst);
+        diff.setContentCompare(true);
+        assertTrue(diff.getChanges(currentTestExecutionTime, false).contains(modified));
+    }
+
+    @Test
+    void isChangedSince_contentCompare_digestsComparedWithoutWorkspace() throws IOException {
+        File srcFile = new File(src, folderFilePath);
+        Files.write(srcFile.toPath(), "abc".getBytes(StandardCharsets.UTF_8));
+        FolderDiffFake<File> diff = getFolderDiff(src, dst);
+        diff.setContentCompare(true);
+        CheckoutManifest manifest = diff.createManifest();
+        diff.getChanges(currentTestExecutionTime, false, manifest);
+        assertTrue(manifest.hasDigests());
+        FileUtils.deleteDirectory(dst);
+
+        diff = getFolderDiff(src, dst);
+        diff.setContentCompare(true);
+        assertEquals(manifest.getFingerprint(), diff.getFingerprint());
+
+        // touched only
+        assertTrue(srcFile.setLastModified(srcFile.lastModified() + ONE_MINUTE));
+        assertFalse(diff.isChangedSince(manifest, true));
+        // same size, other content
+        Files.write(srcFile.toPath(), "abd".getBytes(StandardCharsets.UTF_8));
+        assertTrue(diff.isChangedSince(manifest, true));
+        assertFalse(dst.exists());
+    }
+
     @Test
     void createAndLogg_CountsEntriesCorrectly() {
         FolderDiffFake<File> diff = getFolderDiff(src, dst);
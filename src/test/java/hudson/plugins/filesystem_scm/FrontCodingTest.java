@@ -0,0 +1,62 @@
+package hudson.plugins.filesystem_scm;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class FrontCodingTest {
+
+    @Test
+    void writeRead_longCommonPrefix_sameNames() throws IOException {
+        String deep = StringUtils.repeat("d", FrontCoding.MAX_PREFIX + 1);
+        List<String> names = Arrays.asList("a", "a/b", "a/c", "", "b", deep, deep + "x", deep + "y");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        FrontCoding.Writer writer = new FrontCoding.Writer(out);
+        for (String name : names) {
+            writer.write(name);
+        }
+        writer.end();
+
+        FrontCoding.Reader reader = new FrontCoding.Reader(
+                new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        for (String name : names) {
+            assertEquals(name, reader.next());
+        }
+        assertNull(reader.next());
+    }
+
+    @Test
+    void read_end_throws() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new FrontCoding.Writer(new DataOutputStream(bytes)).end();
+
+        FrontCoding.Reader reader = new FrontCoding.Reader(
+                new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertThrows(EOFException.class, reader::read);
+    }
+
+    @Test
+    void read_prefixLongerThanPrevious_throws() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeShort(3);
+        out.writeUTF("x");
+
+        FrontCoding.Reader reader = new FrontCoding.Reader(
+                new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertThrows(IOException.class, reader::read);
+    }
+}
@@ -0,0 +1,130 @@
+package hudson.plugins.filesystem_scm;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeFalse;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class LocalFileCopyTest {
+
+    @TempDir
+    private File folder;
+    private File src;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        assumeTrue(LocalFileCopy.isSupported());
+        src = new File(folder, "src.sh");
+        Files.write(src.toPath(), "#!/bin/sh\necho hello\n".getBytes(StandardCharsets.UTF_8));
+        Files.setPosixFilePermissions(src.toPath(), PosixFilePermissions.fromString("rwxr-x---"));
+        src.setLastModified(1_500_000_000_000L);
+    }
+
+    @Test
+    void copy_newFileInNewFolder_contentPermissionsAndTimeCopied() throws IOException {
+        File dst = new File(folder, "a/b/dst.sh");
+        LocalFileCopy.copy(src, dst);
+
+        assertArrayEquals(Files.readAllBytes(src.toPath()), Files.readAllBytes(dst.toPath()));
+        assertEquals("rwxr-x---", PosixFilePermissions.toString(Files.getPosixFilePermissions(dst.toPath())));
+        assertEquals(src.lastModified(), dst.lastModified());
+    }
+
+    @Test
+    void copy_existingReadOnlyLongerFile_overwritten() throws IOException {
+        File dst = new File(folder, "dst.sh");
+        Files.write(dst.toPath(), new byte[4096]);
+        Files.setPosixFilePermissions(dst.toPath(), PosixFilePermissions.fromString("r--r--r--"));
+
+        LocalFileCopy.copy(src, dst);
+
+        assertArrayEquals(Files.readAllBytes(src.toPath()), Files.readAllBytes(dst.toPath()));
+        assertEquals("rwxr-x---", PosixFilePermissions.toString(Files.getPosixFilePermissions(dst.toPath())));
+    }
+
+    @Test
+    void link_existingFile_replacedByLinkToSource() throws IOException {
+        File dst = new File(folder, "a/dst.sh");
+        LocalFileCopy.copy(src, dst);
+
+        assertTrue(LocalFileCopy.link(src, dst));
+
+        assertTrue(Files.isSameFile(src.toPath(), dst.toPath()));
+        assertEquals(src.lastModified(), dst.lastModified());
+    }
+
+    @Test
+    void copy_targetFolderReadOnly_accessDeniedReported() throws IOException {
+        File readOnly = new File(folder, "readonly");
+        assertTrue(readOnly.mkdir());
+        assertTrue(readOnly.setWritable(false));
+        assumeFalse(readOnly.canWrite(), "privileged user can write anyway");
+        try {
+            File dst = new File(readOnly, "dst.sh");
+
+            AccessDeniedException e = assertThrows(AccessDeniedException.class, () -> LocalFileCopy.copy(src, dst));
+
+            assertEquals(dst.getPath(), e.getFile());
+            assertFalse(dst.exists());
+        } finally {
+            readOnly.setWritable(true);
+        }
+    }
+
+    @Test
+    void copy_targetIsHardLinkToSource_sourceKeptAndTargetCopied() throws IOException {
+        File dst = new File(folder, "dst.sh");
+        byte[] content = Files.readAllBytes(src.toPath());
+        assertTrue(LocalFileCopy.link(src, dst));
+
+        LocalFileCopy.copy(src, dst);
+
+        assertArrayEquals(content, Files.readAllBytes(src.toPath()));
+        assertArrayEquals(content, Files.readAllBytes(dst.toPath()));
+        assertFalse(Files.isSameFile(src.toPath(), dst.toPath()));
+    }
+
+    @Test
+    void copyFile_hardLinkEnabledThenDisabled_sourceKept() throws IOException {
+        File dst = new File(folder, "dst.sh");
+        byte[] content = Files.readAllBytes(src.toPath());
+        RemoteFolderDiff.CheckOut diff = new RemoteFolderDiff.CheckOut();
+        diff.setHardLink(true);
+        diff.copyFile(src, dst);
+        assertTrue(Files.isSameFile(src.toPath(), dst.toPath()));
+
+        diff = new RemoteFolderDiff.CheckOut();
+        diff.setHardLink(false);
+        diff.copyFile(src, dst);
+
+        assertArrayEquals(content, Files.readAllBytes(src.toPath()));
+        assertArrayEquals(content, Files.readAllBytes(dst.toPath()));
+        assertFalse(Files.isSameFile(src.toPath(), dst.toPath()));
+        assertEquals(src.lastModified(), dst.lastModified());
+    }
+
+    @Test
+    void copyFile_hardLinkEnabled_workspaceFileLinked() throws IOException {
+        File dst = new File(folder, "dst.sh");
+        RemoteFolderDiff.CheckOut diff = new RemoteFolderDiff.CheckOut();
+        diff.setHardLink(true);
+
+        diff.copyFile(src, dst);
+
+        assertTrue(Files.isSameFile(src.toPath(), dst.toPath()));
+    }
+}
@@ -0,0 +1,80 @@
+package hudson.plugins.filesystem_scm;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import jenkins.benchmark.jmh.JmhBenchmark;
+
+/**
+ * Compares the heap taken by a million workspace paths in a {@link HashSet}
+ * and in a {@link PathSet}, reported as the {@code heapBytes} counter.
+ */
+@JmhBenchmark
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+public class PathSetBenchmark {
+
+    private static final int PATHS = 1_000_000;
+
+    @Param({ "HashSet", "PathSet" })
+    public String type;
+
+    private String[] paths;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        // ten folders of ten folders of ten folders of a thousand files each
+        paths = new String[PATHS];
+        for (int i = 0; i < PATHS; i++) {
+            paths[i] = "module" + i / 100_000 + "/src/main/java/org/example/package" + i / 10_000 % 10 + "/sub"
+                    + i / 1_000 % 10 + "/SomeClass" + i % 1_000 + ".java";
+        }
+    }
+
+    /**
+     * The heap still used once the set is built.
+     */
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Heap {
+        public long heapBytes;
+    }
+
+    @Benchmark
+    public Collection<String> build(Heap heap) {
+        long before = usedHeap();
+        Set<String> set = "PathSet".equals(type) ? new PathSet('/') : new HashSet<>();
+        for (String path : paths) {
+            // a copy, as a path read from the disk would be
+            set.add(new String(path));
+        }
+        heap.heapBytes = usedHeap() - before;
+        return set;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,79 @@
+package hudson.plugins.filesystem_scm;
+
+import org.apache.commons.lang3.SerializationUtils;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PathSetTest {
+
+    @Test
+    void addContainsRemove_sameAsHashSet() {
+        PathSet set = new PathSet('/');
+        assertTrue(set.add("a/b/c.txt"));
+        assertTrue(set.add("a/b"));
+        assertTrue(set.add("a.txt"));
+        assertFalse(set.add("a/b/c.txt"));
+
+        assertEquals(3, set.size());
+        assertTrue(set.contains("a/b"));
+        assertFalse(set.contains("a"));
+        assertFalse(set.contains("a/b/c"));
+        assertFalse(set.contains("a/b/c.txt/d"));
+        assertFalse(set.contains(null));
+
+        assertTrue(set.remove("a/b"));
+        assertFalse(set.remove("a/b"));
+        assertFalse(set.remove("x/y"));
+        assertTrue(set.contains("a/b/c.txt"));
+        assertEquals(new HashSet<>(Arrays.asList("a/b/c.txt", "a.txt")), set);
+    }
+
+    @Test
+    void iterator_treeOrderAndRemove() {
+        PathSet set = new PathSet('/');
+        set.addAll(Arrays.asList("b/z", "a", "b/a/x", "c", "b"));
+
+        List<String> paths = new ArrayList<>();
+        for (Iterator<String> it = set.iterator(); it.hasNext();) {
+            String path = it.next();
+            paths.add(path);
+            if (path.startsWith("b/")) {
+                it.remove();
+            }
+        }
+
+        assertEquals(Arrays.asList("a", "b", "b/a/x", "b/z", "c"), paths);
+        assertEquals(new HashSet<>(Arrays.asList("a", "b", "c")), set);
+    }
+
+    @Test
+    void serialization_keepsPathsAndSeparator() {
+        PathSet set = new PathSet('\\');
+        Set<String> expected = new HashSet<>();
+        for (int i = 0; i < 1000; i++) {
+            String path = "dir" + (i % 7) + "\\sub" + (i % 3) + "\\file" + i + ".txt";
+            set.add(path);
+            expected.add(path);
+        }
+        set.remove("dir0\\sub0\\file0.txt");
+        expected.remove("dir0\\sub0\\file0.txt");
+
+        PathSet copy = SerializationUtils.clone(set);
+
+        assertEquals(expected, copy);
+        assertTrue(copy.contains("dir1\\sub1\\file1.txt"));
+        assertFalse(copy.contains("dir1/sub1/file1.txt"));
+        copy.add("dir1\\new.txt");
+        assertTrue(copy.contains("dir1\\new.txt"));
+    }
+}
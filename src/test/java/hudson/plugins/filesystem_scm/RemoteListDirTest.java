@@ -0,0 +1,74 @@
+package hudson.plugins.filesystem_scm;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RemoteListDirTest {
+
+    @TempDir
+    private File folder;
+
+    @Test
+    void writeRead_sameNamesAsInvoke() throws IOException {
+        for (int i = 0; i < 300; i++) {
+            File file = new File(folder, "dir" + (i % 3) + "/sub" + (i % 5) + "/file" + i + ".txt");
+            Files.createDirectories(file.getParentFile().toPath());
+            Files.write(file.toPath(), new byte[0]);
+        }
+        Files.createDirectories(new File(folder, "empty").toPath());
+
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        RemoteListDir.write(folder, stream);
+        Set<String> names = new HashSet<>();
+        RemoteListDir.read(new ByteArrayInputStream(stream.toByteArray()), names::add);
+
+        Set<String> expected = new RemoteListDir().invoke(folder, null);
+        assertEquals(300, expected.size());
+        assertTrue(expected.contains("dir1" + File.separator + "sub1" + File.separator + "file1.txt"));
+        assertEquals(expected, names);
+        // front-coded and compressed
+        assertTrue(stream.size() < 300 * 10, "stream size " + stream.size());
+    }
+
+    @Test
+    void receive_agentFailedMidStream_agentFailureReported() throws IOException {
+        Files.write(new File(folder, "a.txt").toPath(), new byte[0]);
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        RemoteListDir.write(folder, stream);
+        byte[] truncated = Arrays.copyOf(stream.toByteArray(), stream.size() / 2);
+        AccessDeniedException failure = new AccessDeniedException("ws/dir");
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        future.completeExceptionally(failure);
+
+        IOException e = assertThrows(IOException.class, () -> RemoteListDir.receive(
+                new ByteArrayInputStream(truncated), future, "ws", name -> { }));
+
+        assertSame(failure, e.getCause());
+        assertTrue(e.getSuppressed()[0] instanceof EOFException);
+    }
+
+    @Test
+    void receive_streamBrokenAgentDone_readFailureReported() throws IOException {
+        CompletableFuture<Void> future = CompletableFuture.completedFuture(null);
+
+        assertThrows(EOFException.class, () -> RemoteListDir.receive(
+                new ByteArrayInputStream(new byte[0]), future, "ws", name -> { }));
+    }
+}
@@ -0,0 +1,122 @@
+package hudson.plugins.filesystem_scm;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class SourceWatcherTest {
+
+    private static final long TIMEOUT = 10_000;
+
+    @TempDir
+    private File src;
+    private SourceWatcher watcher;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        FileUtils.touch(new File(src, "Folder/FolderFile.txt"));
+        watcher = SourceWatcher.get(src.getAbsolutePath());
+        assertNotNull(watcher);
+    }
+
+    @AfterEach
+    void tearDown() {
+        watcher.close();
+    }
+
+    @Test
+    void pending_newWatcher_dirtyUntilAcknowledged() {
+        assertTrue(watcher.pending("job") > 0);
+        watcher.acknowledge("job", -1);
+        assertEquals(0, watcher.pending("job"));
+    }
+
+    @Test
+    void get_twoJobsSameFolder_watcherSharedAndAcknowledgedPerJob() throws Exception {
+        assertSame(watcher, SourceWatcher.get(src.getAbsolutePath()));
+        watcher.acknowledge("job", -1);
+        assertTrue(new SourceWatcher.Query("other", src.getAbsolutePath()).invoke(src, null) > 0);
+        assertEquals(0, watcher.pending("job"));
+
+        new SourceWatcher.Acknowledge("other", src.getAbsolutePath(), -1).invoke(src, null);
+        FileUtils.touch(new File(src, "Folder/NewFile.txt"));
+        long pending = waitForEvents();
+        assertTrue(pending > 0);
+        watcher.acknowledge("job", pending);
+        assertEquals(0, watcher.pending("job"));
+        assertTrue(watcher.pending("other") >= pending);
+    }
+
+    @Test
+    void pending_fileCreatedInNewSubFolder_dirtyAgain() throws Exception {
+        watcher.acknowledge("job", -1);
+
+        File subFolder = new File(src, "Folder/NewFolder");
+        assertTrue(subFolder.mkdir());
+        long pending = waitForEvents();
+        watcher.acknowledge("job", pending);
+        assertEquals(0, watcher.pending("job"));
+
+        // the new folder has been registered as well
+        FileUtils.touch(new File(subFolder, "NewFile.txt"));
+        assertTrue(waitForEvents() > pending);
+    }
+
+    @Test
+    void get_missingSourceFolder_noWatcher() throws IOException {
+        assertNull(SourceWatcher.get(new File(src, "missing").getAbsolutePath()));
+    }
+
+    @Test
+    void get_watchLimitReached_noWatcherAndPollingScans() throws IOException {
+        // the running watcher is shared, a folder not watched yet needs a new one
+        String path = new File(src, "Folder").getAbsolutePath();
+        List<WatchService> services = new ArrayList<>();
+        try {
+            try {
+                // until the limit of inotify instances is reached
+                while (services.size() < 10_000) {
+                    services.add(FileSystems.getDefault().newWatchService());
+                }
+            } catch (IOException e) {
+                // reached
+            }
+            assumeTrue(services.size() < 10_000, "no limit of watch services");
+
+            assertNull(SourceWatcher.get(path));
+            assertEquals(1, (long) new SourceWatcher.Query("other", path).invoke(src, null));
+            new SourceWatcher.Acknowledge("other", path, -1).invoke(src, null);
+        } finally {
+            for (WatchService service : services) {
+                service.close();
+            }
+        }
+        // not tried again on every poll
+        assertNull(SourceWatcher.get(path));
+        assertEquals(1, (long) new SourceWatcher.Query("other", path).invoke(src, null));
+    }
+
+    private long waitForEvents() throws InterruptedException {
+        long end = System.currentTimeMillis() + TIMEOUT;
+        while (watcher.pending("job") == 0 && System.currentTimeMillis() < end) {
+            Thread.sleep(50);
+        }
+        return watcher.pending("job");
+    }
+}
@@ -0,0 +1,104 @@
+package hudson.plugins.filesystem_scm;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Synthetic source trees for the benchmarks.
+ */
+public enum TreeShape {
+
+    /**
+     * A binary tree of folders ten levels deep, two small files in each.
+     */
+    DEEP {
+        @Override
+        void create(File dir, Random random, List<String> names, String prefix) throws IOException {
+            createDeep(dir, random, names, prefix, 10);
+        }
+    },
+    /**
+     * Two hundred folders of twenty-five small files below the root.
+     */
+    WIDE {
+        @Override
+        void create(File dir, Random random, List<String> names, String prefix) throws IOException {
+            for (int d = 0; d < 200; d++) {
+                for (int f = 0; f < 25; f++) {
+                    write(new File(dir, "dir" + d + "/file" + f + ".txt"), 1024, random, names, prefix);
+                }
+            }
+        }
+    },
+    /**
+     * Twenty thousand files of a hundred bytes, in three levels of ten folders.
+     */
+    MANY_SMALL {
+        @Override
+        void create(File dir, Random random, List<String> names, String prefix) throws IOException {
+            for (int i = 0; i < 20_000; i++) {
+                String name = "a" + i / 2000 + "/b" + i / 200 % 10 + "/c" + i / 20 % 10 + "/file" + i + ".java";
+                write(new File(dir, name), 100, random, names, prefix);
+            }
+        }
+    },
+    /**
+     * Ten files of 16 MiB.
+     */
+    FEW_LARGE {
+        @Override
+        void create(File dir, Random random, List<String> names, String prefix) throws IOException {
+            for (int i = 0; i < 10; i++) {
+                write(new File(dir, "lib/archive" + i + ".zip"), 16 * 1024 * 1024, random, names, prefix);
+            }
+        }
+    };
+
+    /**
+     * Creates the tree, the same one for the same seed.
+     *
+     * @param dir
+     *            the root of the tree
+     * @param seed
+     *            the seed of the file contents
+     * @return the names of the files created, relative to the root, with '/' as
+     *         separator
+     * @throws IOException
+     *             if a file cannot be written
+     */
+    public List<String> create(File dir, long seed) throws IOException {
+        List<String> names = new ArrayList<>();
+        create(dir, new Random(seed), names, dir.getPath() + File.separator);
+        return names;
+    }
+
+    abstract void create(File dir, Random random, List<String> names, String prefix) throws IOException;
+
+    private static void createDeep(File dir, Random random, List<String> names, String prefix, int depth)
+            throws IOException {
+        write(new File(dir, "a.txt"), 512, random, names, prefix);
+        write(new File(dir, "b.xml"), 2048, random, names, prefix);
+        if (depth > 0) {
+            createDeep(new File(dir, "left"), random, names, prefix, depth - 1);
+            createDeep(new File(dir, "right"), random, names, prefix, depth - 1);
+        }
+    }
+
+    private static void write(File file, int size, Random random, List<String> names, String prefix)
+            throws IOException {
+        Files.createDirectories(file.getParentFile().toPath());
+        byte[] chunk = new byte[Math.min(size, 1024 * 1024)];
+        random.nextBytes(chunk);
+        try (OutputStream out = Files.newOutputStream(file.toPath())) {
+            for (int written = 0; written < size; written += chunk.length) {
+                out.write(chunk, 0, Math.min(chunk.length, size - written));
+            }
+        }
+        names.add(file.getPath().substring(prefix.length()).replace(File.separatorChar, '/'));
+    }
+}
@@ -0,0 +1,104 @@
+package hudson.plugins.filesystem_scm;
+
+import org.apache.commons.lang3.SerializationUtils;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WildcardMatcherTest {
+
+    private static final File ROOT = new File("/build/src");
+
+    private static final String[] WILDCARDS = { "*.txt", "**/CVS/*", "org/apache/jakarta/**", "**/*.gif",
+            "*/.hgignore", "a?c/**/d*f.java", "**", "**/target/**", "x/y", "*", "*.*", "dir\\*.TXT" };
+
+    private static final String[] NAMES = { "a.txt", "A.TXT", "b/a.txt", "CVS/Entries", "x/CVS/Root", "x/CVS",
+            "org/apache/jakarta/x.java", "org/apache/jakarta", "a/org/apache/jakarta/b/c", "org/apache/x",
+            "img/logo.gif", "logo.GIF", "p/.hgignore", ".hgignore", "q/p/.hgignore", "abc/d.f/def.java",
+            "abc/x/y/dxf.java", "abd/def.java", "target/a", "m/target/b/c", "target", "x/y", "z/x/y", "x/y/z",
+            "noext", "dir/a.txt", "dir/sub/a.txt" };
+
+    @Test
+    void accept_sameResultAsSimpleAntWildcardFilter() {
+        for (String wildcard : WILDCARDS) {
+            SimpleAntWildcardFilter filter = new SimpleAntWildcardFilter(wildcard);
+            WildcardMatcher include = WildcardMatcher.compile(true, new String[] { wildcard }, ROOT);
+            WildcardMatcher exclude = WildcardMatcher.compile(false, new String[] { wildcard }, ROOT);
+            for (String name : NAMES) {
+                File file = new File(ROOT, name);
+                boolean expected = filter.accept(file);
+                assertEquals(expected, include.accept(name, file), wildcard + " include " + name);
+                assertEquals(!expected, exclude.accept(name, file), wildcard + " exclude " + name);
+            }
+        }
+    }
+
+    @Test
+    void accept_severalWildcards_includeNeedsAllExcludeNeedsNone() {
+        String[] wildcards = { "**/main/**", "*.java" };
+        WildcardMatcher include = WildcardMatcher.compile(true, wildcards, ROOT);
+        WildcardMatcher exclude = WildcardMatcher.compile(false, wildcards, ROOT);
+
+        assertTrue(include.accept("a/main/b/C.java", new File(ROOT, "a/main/b/C.java")));
+        assertFalse(include.accept("a/main/b/C.txt", new File(ROOT, "a/main/b/C.txt")));
+        assertFalse(exclude.accept("a/main/b/C.txt", new File(ROOT, "a/main/b/C.txt")));
+        assertTrue(exclude.accept("a/b/C.txt", new File(ROOT, "a/b/C.txt")));
+    }
+
+    @Test
+    void accept_absoluteWildcard_matchedOnAbsolutePath() {
+        String wildcard = ROOT.getAbsolutePath() + "/**/*.txt";
+        WildcardMatcher include = WildcardMatcher.compile(true, new String[] { wildcard, "a/**" }, ROOT);
+
+        assertTrue(include.accept("a/b.txt", new File(ROOT, "a/b.txt")));
+        assertFalse(include.accept("a/b.txt", new File("/elsewhere/a/b.txt")));
+        assertFalse(include.accept("c/b.txt", new File(ROOT, "c/b.txt")));
+    }
+
+    @Test
+    void excludesAllBelow_onlyDirectoriesWholeContentIsExcluded() {
+        WildcardMatcher exclude = WildcardMatcher.compile(false,
+                new String[] { "**/node_modules/**", "out/**", "*.class", "**/tmp/*" }, ROOT);
+
+        assertTrue(exclude.excludesAllBelow("node_modules"));
+        assertTrue(exclude.excludesAllBelow("a/b/node_modules"));
+        assertTrue(exclude.excludesAllBelow("a/node_modules/b"));
+        assertTrue(exclude.excludesAllBelow("x/out"));
+        assertFalse(exclude.excludesAllBelow("a"));
+        assertFalse(exclude.excludesAllBelow("a.class"));
+        // only the files directly in tmp are excluded
+        assertFalse(exclude.excludesAllBelow("tmp"));
+
+        assertTrue(WildcardMatcher.compile(false, new String[] { "**" }, ROOT).excludesAllBelow("a"));
+        assertFalse(WildcardMatcher.compile(true, new String[] { "out/**" }, ROOT).excludesAllBelow("a"));
+    }
+
+    @Test
+    void get_sameWildcards_compiledOnceAndSharedAfterSerialization() {
+        String[] wildcards = { "**/node_modules/**", "*.class" };
+        WildcardMatcher matcher = WildcardMatcher.get(false, wildcards);
+        assertSame(matcher, WildcardMatcher.get(false, wildcards.clone()));
+        assertNotSame(matcher, WildcardMatcher.get(true, wildcards));
+
+        WildcardMatcher copy = SerializationUtils.clone(matcher);
+        assertSame(matcher, copy);
+        assertFalse(copy.rootedAt(ROOT).accept("a/B.class", new File(ROOT, "a/B.class")));
+        assertTrue(copy.rootedAt(ROOT).excludesAllBelow("node_modules"));
+    }
+
+    @Test
+    void matchSegment_wildcards() {
+        assertTrue(WildcardMatcher.matchSegment("*", "", 0, 0));
+        assertTrue(WildcardMatcher.matchSegment("a*b*c", "xaXbYbcx", 1, 7));
+        assertFalse(WildcardMatcher.matchSegment("a*b*c", "aXbYbcd", 0, 7));
+        assertTrue(WildcardMatcher.matchSegment("?b?", "ABC", 0, 3));
+        assertFalse(WildcardMatcher.matchSegment("?", "", 0, 0));
+        assertFalse(WildcardMatcher.matchSegment("[", "{", 0, 1));
+    }
+}